@@ -0,0 +1,94 @@
+package enigma;
+
+import java.util.Arrays;
+
+/** An ordered set of symbols on which rotors operate.  Symbol K of the
+ *  alphabet has index K.  Conversions in both directions are single
+ *  array lookups.  Rotor.toIndex and Rotor.toLetter are the same
+ *  conversions specialized to UPPER, which is the alphabet of
+ *  RotorCatalog.STANDARD.
+ *  @author Charles Lee
+ */
+class Alphabet {
+
+    /** The upper-case letters 'A' to 'Z'. */
+    static final Alphabet UPPER = new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+
+    /** The 64 symbols of the base64 encoding, in the order of their
+     *  values. */
+    static final Alphabet BASE64 =
+        new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz"
+                     + "0123456789+/");
+
+    /** All 256 byte values, as the characters with those codes. */
+    static final Alphabet BYTES = bytes();
+
+    /** An alphabet whose symbols are the characters of SYMBOLS, in
+     *  order.  Throws IllegalArgumentException if SYMBOLS is empty or
+     *  contains a character more than once. */
+    Alphabet(String symbols) {
+        if (symbols.isEmpty()) {
+            throw new IllegalArgumentException("empty alphabet");
+        }
+        _symbols = symbols.toCharArray();
+        char max = 0;
+        for (char c : _symbols) {
+            max = (char) Math.max(max, c);
+        }
+        _indices = new int[max + 1];
+        Arrays.fill(_indices, -1);
+        for (int k = 0; k < _symbols.length; k += 1) {
+            if (_indices[_symbols[k]] != -1) {
+                throw new IllegalArgumentException("repeated symbol in "
+                                                   + "alphabet");
+            }
+            _indices[_symbols[k]] = k;
+        }
+    }
+
+    /** Return the alphabet of all byte values. */
+    private static Alphabet bytes() {
+        char[] symbols = new char[1 << Byte.SIZE];
+        for (int k = 0; k < symbols.length; k += 1) {
+            symbols[k] = (char) k;
+        }
+        return new Alphabet(new String(symbols));
+    }
+
+    /** Return the number of symbols in me. */
+    int size() {
+        return _symbols.length;
+    }
+
+    /** Return the index of the symbol C, or -1 if C is not in me. */
+    int toIndex(char c) {
+        return c < _indices.length ? _indices[c] : -1;
+    }
+
+    /** Return the symbol with index P (0 <= P < size()). */
+    char toSymbol(int p) {
+        return _symbols[p];
+    }
+
+    /** Return true iff C is one of my symbols. */
+    boolean contains(char c) {
+        return toIndex(c) >= 0;
+    }
+
+    /** Return my symbols, in order. */
+    String symbols() {
+        return new String(_symbols);
+    }
+
+    @Override
+    public String toString() {
+        return symbols();
+    }
+
+    /** My symbols, by index. */
+    private final char[] _symbols;
+
+    /** _indices[C] is the index of symbol C, or -1 if C is not one of my
+     *  symbols. */
+    private final int[] _indices;
+}
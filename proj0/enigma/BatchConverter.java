@@ -0,0 +1,157 @@
+package enigma;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Converts many independent messages, each with its own configuration,
+ *  using machines from a MachinePool and converting messages
+ *  concurrently.  Keeps counts of messages converted, time spent, and
+ *  (where the JVM supports measuring it) bytes allocated.
+ *  @author Charles Lee
+ */
+class BatchConverter {
+
+    /** A message to be converted, with the configuration of the machine
+     *  that converts it. */
+    static class Message {
+        /** A message consisting of TEXT (upper-case letters only),
+         *  converted as CONFIG describes. */
+        Message(Configuration config, String text) {
+            _config = config;
+            _text = text;
+        }
+
+        /** Return my configuration. */
+        Configuration config() {
+            return _config;
+        }
+
+        /** Return my text. */
+        String text() {
+            return _text;
+        }
+
+        /** My configuration. */
+        private final Configuration _config;
+        /** My text. */
+        private final String _text;
+    }
+
+    /** A converter using a new MachinePool and the common
+     *  ForkJoinPool. */
+    BatchConverter() {
+        this(new MachinePool(), ForkJoinPool.commonPool());
+    }
+
+    /** A converter that takes machines from MACHINES and converts on
+     *  EXECUTOR. */
+    BatchConverter(MachinePool machines, ForkJoinPool executor) {
+        _machines = machines;
+        _executor = executor;
+    }
+
+    /** Return the conversion of MSG, converting in the current
+     *  thread. */
+    String convert(Message msg) {
+        long allocated0 = allocated();
+        Machine m = _machines.acquire(msg.config());
+        String result = m.convert(msg.text());
+        _machines.release(msg.config(), m);
+        if (allocated0 >= 0) {
+            _allocated.add(allocated() - allocated0);
+        }
+        _messages.increment();
+        return result;
+    }
+
+    /** Return the conversions of MSGS, in order, converting them
+     *  concurrently. */
+    List<String> convertAll(List<Message> msgs) {
+        long start = System.nanoTime();
+        ArrayList<ForkJoinTask<String>> tasks = new ArrayList<>();
+        for (Message msg : msgs) {
+            tasks.add(_executor.submit(() -> convert(msg)));
+        }
+        ArrayList<String> result = new ArrayList<>();
+        for (ForkJoinTask<String> task : tasks) {
+            result.add(task.join());
+        }
+        _nanos.add(System.nanoTime() - start);
+        return result;
+    }
+
+    /** Return the number of messages converted. */
+    long messages() {
+        return _messages.sum();
+    }
+
+    /** Return the number of messages converted per second of elapsed
+     *  time in convertAll. */
+    double messagesPerSecond() {
+        long nanos = _nanos.sum();
+        return nanos == 0 ? 0.0 : messages() * 1e9 / nanos;
+    }
+
+    /** Return the average number of bytes allocated per message
+     *  converted, or -1 if this JVM cannot measure allocation. */
+    double bytesPerMessage() {
+        if (ALLOCATION == null || messages() == 0) {
+            return -1;
+        }
+        return (double) _allocated.sum() / messages();
+    }
+
+    /** Return a one-line summary of my counts. */
+    String report() {
+        return String.format("%d messages, %.0f messages/sec, "
+                             + "%.0f bytes allocated/message, "
+                             + "%d machines built",
+                             messages(), messagesPerSecond(),
+                             bytesPerMessage(), _machines.created());
+    }
+
+    /** Return the number of bytes allocated so far by the current
+     *  thread, or -1 if unavailable. */
+    static long allocated() {
+        if (ALLOCATION == null) {
+            return -1;
+        }
+        return ALLOCATION.getThreadAllocatedBytes(
+            Thread.currentThread().getId());
+    }
+
+    /** Source of per-thread allocation counts, or null if this JVM does
+     *  not provide them. */
+    private static final com.sun.management.ThreadMXBean ALLOCATION;
+
+    static {
+        java.lang.management.ThreadMXBean bean =
+            ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) bean)
+                .isThreadAllocatedMemorySupported()) {
+            ALLOCATION = (com.sun.management.ThreadMXBean) bean;
+        } else {
+            ALLOCATION = null;
+        }
+    }
+
+    /** Source of machines. */
+    private final MachinePool _machines;
+
+    /** Pool on which messages are converted. */
+    private final ForkJoinPool _executor;
+
+    /** Number of messages converted. */
+    private final LongAdder _messages = new LongAdder();
+
+    /** Nanoseconds spent in convertAll. */
+    private final LongAdder _nanos = new LongAdder();
+
+    /** Bytes allocated while converting messages. */
+    private final LongAdder _allocated = new LongAdder();
+}
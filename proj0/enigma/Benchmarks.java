@@ -0,0 +1,366 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.Random;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/** Micro-benchmarks for the enigma package.  Each benchmark is run for a
+ *  number of warm-up rounds and then for a number of measured rounds,
+ *  after which its average time and allocation per operation are
+ *  printed.  The usage is
+ *
+ *      java enigma.Benchmarks [ PATTERN ]
+ *
+ *  where PATTERN, if present, is a regular expression selecting the
+ *  benchmarks to run by name.  The results for the checked-in version
+ *  are kept in benchmarks/baseline.txt.
+ *  @author Charles Lee
+ */
+class Benchmarks {
+
+    /** Number of unmeasured rounds of each benchmark. */
+    static final int WARMUP_ROUNDS = 3;
+
+    /** Number of measured rounds of each benchmark. */
+    static final int ROUNDS = 5;
+
+    /** Minimum number of nanoseconds in a round.  Operations are
+     *  repeated within a round until it lasts at least this long. */
+    static final long MIN_ROUND_NANOS = 200_000_000L;
+
+    /** Run the benchmarks whose names match ARGS[0], or all of them if
+     *  ARGS is empty. */
+    public static void main(String[] args) {
+        Pattern select = Pattern.compile(args.length > 0 ? args[0] : ".*");
+        Benchmarks b = new Benchmarks(select);
+        System.out.printf("%-32s %14s %14s%n", "benchmark", "ns/op",
+                          "bytes/op");
+        b.rotorBenchmarks();
+        b.machineBenchmarks();
+        b.mainBenchmarks();
+        b.scoringBenchmarks();
+        System.out.printf("(checksum %d)%n", b._sink);
+    }
+
+    /** A set of benchmarks, selecting those to run with SELECT. */
+    Benchmarks(Pattern select) {
+        _select = select;
+    }
+
+    /** Benchmark the conversion and notch operations of Rotor. */
+    void rotorBenchmarks() {
+        Rotor rotor = new Rotor("III", 0);
+        bench("Rotor.convertForward", ALPHABET_OPS, () -> {
+            long sum = 0;
+            for (int s = 0; s < Rotor.ALPHABET_SIZE; s += 1) {
+                rotor.set(s);
+                for (int p = 0; p < Rotor.ALPHABET_SIZE; p += 1) {
+                    sum += rotor.convertForward(p);
+                }
+            }
+            return sum;
+        });
+        bench("Rotor.convertBackward", ALPHABET_OPS, () -> {
+            long sum = 0;
+            for (int s = 0; s < Rotor.ALPHABET_SIZE; s += 1) {
+                rotor.set(s);
+                for (int p = 0; p < Rotor.ALPHABET_SIZE; p += 1) {
+                    sum += rotor.convertBackward(p);
+                }
+            }
+            return sum;
+        });
+        bench("Rotor.atNotch", Rotor.ALPHABET_SIZE, () -> {
+            long sum = 0;
+            for (int s = 0; s < Rotor.ALPHABET_SIZE; s += 1) {
+                rotor.set(s);
+                sum += rotor.atNotch() ? 1 : 0;
+            }
+            return sum;
+        });
+    }
+
+    /** Benchmark Machine.convert on messages of several sizes and with
+     *  several plugboards, Machine.advance, Machine.snapshot and
+     *  Machine.restore, Machine.convert on binary payloads over
+     *  Alphabet.BYTES, and BlockConverter.convert. */
+    void machineBenchmarks() {
+        for (int size : MESSAGE_SIZES) {
+            if (!selected("Machine.convert/" + label(size))) {
+                continue;
+            }
+            String msg = randomLetters(size);
+            Machine m = new Machine();
+            Main.configure(m, Configuration.SAMPLE);
+            bench("Machine.convert/" + label(size), size,
+                  () -> m.convert(msg).charAt(0));
+        }
+        String msg1 = randomLetters(MB);
+        for (String pairs : PLUGBOARDS) {
+            String name = "Machine.convert/" + label(MB) + "/plugboard-"
+                + (pairs.length() + 1) / 3;
+            Machine m = new Machine();
+            Main.configure(m,
+                           (Configuration.SAMPLE + " " + pairs).trim());
+            bench(name, MB, () -> m.convert(msg1).charAt(0));
+        }
+        Machine m2 = new Machine();
+        Main.configure(m2, Configuration.SAMPLE);
+        bench("Machine.advance/" + label(MB), 1, () -> {
+            m2.advance(MB);
+            return m2.getState();
+        });
+        long snapshot = m2.snapshot();
+        bench("Machine.snapshot+restore", 1, () -> {
+            m2.restore(snapshot);
+            return m2.snapshot();
+        });
+        if (selected("Machine.convert/" + label(MB) + "/bytes")) {
+            RotorCatalog current = RotorCatalog.current();
+            RotorCatalog.setCurrent(RotorCatalog.random(Alphabet.BYTES,
+                                                        new Random(MB)));
+            Machine m = new Machine();
+            Main.configure(m, Configuration.SAMPLE);
+            RotorCatalog.setCurrent(current);
+            byte[] payload = new byte[MB];
+            new Random(MB).nextBytes(payload);
+            bench("Machine.convert/" + label(MB) + "/bytes", MB, () -> {
+                m.convert(payload, 0, payload.length);
+                return payload[0];
+            });
+        }
+        if (selected("BlockConverter.convert")) {
+            BlockConverter block = BlockConverter.create();
+            String msg = randomLetters(MB);
+            Machine m = new Machine();
+            Main.configure(m, Configuration.SAMPLE);
+            bench("BlockConverter.convert/" + label(MB)
+                  + (block.isVectorized() ? "/vector" : "/scalar"), MB,
+                  () -> block.convert(m, msg).charAt(0));
+        }
+    }
+
+    /** Benchmark the input processing done by Main, including the
+     *  conversion of whole message lines by LineConverter, whose
+     *  bytes/op is its allocation per line, with Metrics disabled and
+     *  enabled. */
+    void mainBenchmarks() {
+        String line = "Hello world this is a message of mixed Case, with"
+            + " punctuation and\tblanks";
+        bench("Main.standardize", 1, () -> Main.standardize(line).length());
+        bench("Main.isConfigurationLine", 1,
+              () -> Main.isConfigurationLine(Configuration.SAMPLE)
+                  ? 1 : 0);
+        ConfigurationParser parser = new ConfigurationParser();
+        char[] configChars = Configuration.SAMPLE.toCharArray();
+        bench("ConfigurationParser.parse", 1,
+              () -> parser.parse(configChars, configChars.length) ? 1 : 0);
+        Machine lm = new Machine();
+        Main.configure(lm, Configuration.SAMPLE);
+        LineConverter lines =
+            new LineConverter(lm, OutputStream.nullOutputStream());
+        char[] text = line.toCharArray(), buf = new char[text.length];
+        LongSupplier convertLine = () -> {
+            System.arraycopy(text, 0, buf, 0, text.length);
+            try {
+                lines.convertLine(buf, buf.length);
+                lines.flush();
+            } catch (IOException excp) {
+                throw new UncheckedIOException(excp);
+            }
+            return buf[0];
+        };
+        bench("LineConverter.convertLine", 1, convertLine);
+        Metrics.setEnabled(true);
+        bench("LineConverter.convertLine/metrics", 1, convertLine);
+        Metrics.setEnabled(false);
+        Machine m = new Machine();
+        bench("Main.configure", 1, () -> {
+            Main.configure(m, Configuration.SAMPLE);
+            return m.getRotors()[2].getSetting();
+        });
+        String[] configs = configurationLines(CONFIG_LINES);
+        bench("Main.configure/config-heavy", configs.length, () -> {
+            long sum = 0;
+            for (String config : configs) {
+                if (Main.isConfigurationLine(config)) {
+                    Main.configure(m, config);
+                    sum += m.getRotors()[2].getSetting();
+                }
+            }
+            return sum;
+        });
+        char[][] chars = new char[configs.length][];
+        for (int i = 0; i < configs.length; i += 1) {
+            chars[i] = configs[i].toCharArray();
+        }
+        bench("ConfigurationParser/config-heavy", chars.length, () -> {
+            long sum = 0;
+            for (char[] config : chars) {
+                if (parser.parse(config, config.length)) {
+                    parser.configure(m);
+                    sum += m.getRotors()[2].getSetting();
+                }
+            }
+            return sum;
+        });
+        StringBuilder input = new StringBuilder();
+        for (String config : configs) {
+            input.append(config).append('\n').append(line).append('\n');
+        }
+        String heavy = input.toString();
+        LineConverter converter =
+            new LineConverter(new Machine(), OutputStream.nullOutputStream());
+        bench("LineConverter.convert/config-heavy", 2 * configs.length,
+              () -> {
+                  try {
+                      converter.convert(new StringReader(heavy));
+                  } catch (IOException excp) {
+                      throw new UncheckedIOException(excp);
+                  }
+                  return heavy.length();
+              });
+    }
+
+    /** Return N configuration lines for the benchmarks, with a few
+     *  rotor selections in common and various initial settings, ring
+     *  settings and plugboards. */
+    static String[] configurationLines(int n) {
+        String[] selections = {
+            "B BETA III IV I", "C GAMMA VI VII VIII", "B GAMMA V IV III",
+            "C BETA I II III"
+        };
+        Random random = new Random(n);
+        String[] result = new String[n];
+        for (int i = 0; i < n; i += 1) {
+            StringBuilder line = new StringBuilder("* ");
+            line.append(selections[random.nextInt(selections.length)]);
+            int fields = random.nextBoolean() ? 2 : 1;
+            for (int f = 0; f < fields; f += 1) {
+                line.append(' ');
+                for (int k = 0; k < Configuration.NUM_ROTORS - 1; k += 1) {
+                    line.append(Rotor.toLetter(
+                        random.nextInt(Rotor.ALPHABET_SIZE)));
+                }
+            }
+            int[] letters = random.ints(0, Rotor.ALPHABET_SIZE).distinct()
+                .limit(2 * random.nextInt(Configuration.MAX_PAIRS + 1))
+                .toArray();
+            for (int k = 0; k < letters.length; k += 2) {
+                line.append(' ').append(Rotor.toLetter(letters[k]))
+                    .append(Rotor.toLetter(letters[k + 1]));
+            }
+            result[i] = line.toString();
+        }
+        return result;
+    }
+
+    /** Benchmark the Scorers used by HillClimb, per letter scored. */
+    void scoringBenchmarks() {
+        char[] text = randomLetters(KB).toCharArray();
+        IndexOfCoincidence ioc = new IndexOfCoincidence();
+        bench("IndexOfCoincidence.score/" + label(KB), KB,
+              () -> (long) (1e6 * ioc.score(text, text.length)));
+        try {
+            NgramTable trigrams = NgramTable.train(
+                new StringReader(randomLetters(MB)), 3);
+            bench("NgramTable.score/trigram/" + label(KB), KB,
+                  () -> (long) trigrams.score(text, text.length));
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    /** Run the benchmark named NAME, if selected.  Each call of BODY
+     *  performs OPS operations and returns a value that depends on
+     *  their results. */
+    void bench(String name, long ops, LongSupplier body) {
+        if (!selected(name)) {
+            return;
+        }
+        long calls = 1;
+        for (int r = 0; r < WARMUP_ROUNDS; r += 1) {
+            long nanos = round(body, calls);
+            while (nanos < MIN_ROUND_NANOS) {
+                calls *= 2;
+                nanos = round(body, calls);
+            }
+        }
+        long nanos, bytes, bytes0;
+        nanos = bytes = bytes0 = 0;
+        for (int r = 0; r < ROUNDS; r += 1) {
+            bytes0 = BatchConverter.allocated();
+            nanos += round(body, calls);
+            bytes += BatchConverter.allocated() - bytes0;
+        }
+        double total = (double) ops * calls * ROUNDS;
+        System.out.printf("%-32s %14.2f %14.2f%n", name, nanos / total,
+                          bytes0 < 0 ? Double.NaN : bytes / total);
+    }
+
+    /** Return true iff the benchmark named NAME is to be run. */
+    boolean selected(String name) {
+        return _select.matcher(name).find();
+    }
+
+    /** Return the nanoseconds taken by CALLS calls of BODY. */
+    private long round(LongSupplier body, long calls) {
+        long start = System.nanoTime();
+        for (long i = 0; i < calls; i += 1) {
+            _sink += body.getAsLong();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** Return a string of N random upper-case letters. */
+    static String randomLetters(int n) {
+        Random random = new Random(n);
+        char[] result = new char[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = Rotor.toLetter(random.nextInt(Rotor.ALPHABET_SIZE));
+        }
+        return new String(result);
+    }
+
+    /** Return a short label for a message of SIZE letters. */
+    static String label(int size) {
+        if (size >= MB) {
+            return size / MB + "MB";
+        } else {
+            return size / KB + "KB";
+        }
+    }
+
+    /** Bytes in a kilobyte. */
+    static final int KB = 1 << 10;
+
+    /** Number of configuration lines in the config-heavy benchmarks. */
+    static final int CONFIG_LINES = 64;
+
+    /** Bytes in a megabyte. */
+    static final int MB = 1 << 20;
+
+    /** Plugboard pairs for the Machine.convert benchmarks with 0, 6
+     *  and 10 pairs. */
+    static final String[] PLUGBOARDS = {
+        "", "AM FI NV PS TU WZ", "AM FI NV PS TU WZ BC DE GH JK"
+    };
+
+    /** Message sizes for the Machine.convert benchmarks. */
+    static final int[] MESSAGE_SIZES = { KB, MB, 100 * MB };
+
+    /** Operations in one pass over all settings and inputs of a
+     *  rotor. */
+    static final int ALPHABET_OPS = Rotor.ALPHABET_SIZE * Rotor.ALPHABET_SIZE;
+
+    /** Benchmarks to run. */
+    private final Pattern _select;
+
+    /** Accumulated benchmark results, printed so that they cannot be
+     *  optimized away. */
+    private long _sink;
+}
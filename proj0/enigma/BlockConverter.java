@@ -0,0 +1,99 @@
+package enigma;
+
+/** Converts messages a block of letters at a time.  For each block,
+ *  the settings of every rotor at every letter are computed first, so
+ *  that converting the letters themselves is a fixed sequence of table
+ *  lookups that is independent from letter to letter.  Subclasses may
+ *  perform those lookups for several letters at once.  A BlockConverter
+ *  holds scratch storage and must be used by one thread at a time.
+ *  @author Charles Lee
+ */
+class BlockConverter {
+
+    /** Number of letters in a block. */
+    static final int BLOCK_SIZE = 1024;
+
+    /** Name of the subclass that uses the JDK Vector API.  It is built
+     *  separately (see the Makefile) because the Vector API is an
+     *  incubator module that must be enabled explicitly. */
+    static final String VECTOR_CLASS = "enigma.VectorConverter";
+
+    /** A converter that uses no vector operations. */
+    BlockConverter() {
+        _settings = new int[Configuration.NUM_ROTORS][BLOCK_SIZE];
+        _letters = new int[BLOCK_SIZE];
+    }
+
+    /** Return the fastest available converter: one using the Vector API
+     *  if both it and VECTOR_CLASS are available, and otherwise a
+     *  BlockConverter. */
+    static BlockConverter create() {
+        try {
+            return (BlockConverter) Class.forName(VECTOR_CLASS)
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError excp) {
+            return new BlockConverter();
+        }
+    }
+
+    /** Return true iff I use vector operations. */
+    boolean isVectorized() {
+        return false;
+    }
+
+    /** Replace the upper-case letters in BUF[START .. END-1] with their
+     *  encoding/decoding by M, updating the state of M's rotors as for
+     *  M.convert(BUF, START, END). */
+    void convert(Machine m, char[] buf, int start, int end) {
+        Rotor[] rotors = m.getRotors();
+        for (int lo = start; lo < end; lo += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, end - lo);
+            m.trace(n, _settings);
+            for (int i = 0; i < n; i += 1) {
+                _letters[i] = Rotor.toIndex(buf[lo + i]);
+            }
+            convertBlock(rotors, _settings, _letters, n);
+            for (int i = 0; i < n; i += 1) {
+                buf[lo + i] = Rotor.toLetter(_letters[i]);
+            }
+        }
+    }
+
+    /** Returns the encoding/decoding of MSG by M, updating the state of
+     *  M's rotors as for M.convert(MSG). */
+    String convert(Machine m, String msg) {
+        char[] buf = msg.toCharArray();
+        convert(m, buf, 0, buf.length);
+        return new String(buf);
+    }
+
+    /** Replace LETTERS[0 .. N-1] (indices 0..25) with their conversions
+     *  by ROTORS, where SETTINGS[K][I] is ALPHABET_SIZE times the
+     *  setting of ROTORS[K] when converting LETTERS[I]. */
+    void convertBlock(Rotor[] rotors, int[][] settings, int[] letters,
+                      int n) {
+        convertBlock(rotors, settings, letters, 0, n);
+    }
+
+    /** Convert LETTERS[FROM .. TO-1] as for convertBlock(ROTORS,
+     *  SETTINGS, LETTERS, N), one letter at a time. */
+    final void convertBlock(Rotor[] rotors, int[][] settings,
+                            int[] letters, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            int c = letters[i];
+            for (int k = rotors.length - 1; k >= 0; k -= 1) {
+                c = rotors[k].forwardTable()[settings[k][i] + c];
+            }
+            for (int k = 1; k < rotors.length; k += 1) {
+                c = rotors[k].backwardTable()[settings[k][i] + c];
+            }
+            letters[i] = c;
+        }
+    }
+
+    /** Rotor settings for the current block, as for convertBlock. */
+    private final int[][] _settings;
+
+    /** Letter indices of the current block. */
+    private final int[] _letters;
+}
@@ -0,0 +1,360 @@
+package enigma;
+
+import static enigma.Rotor.ALPHABET_SIZE;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A simulation of a Turing-Welchman bombe.  A crib and the ciphertext
+ *  under it define a menu: a graph whose nodes are letters and which has
+ *  an edge between the plaintext and ciphertext letters at each position
+ *  of the crib.  For a given rotor selection and initial setting, the
+ *  bombe hypothesizes a plugboard partner for the menu's central letter
+ *  and propagates the consequences through the menu (and, by the
+ *  diagonal board, through the symmetry of plugboard pairs).  Unless
+ *  every possible partner of the central letter is thereby ruled out,
+ *  the setting is a stop, reported with the partners that remain.
+ *  Each combination of reflector, fourth wheel and rotor order is a
+ *  drum bank, and banks run concurrently.  The usage is
+ *
+ *      java enigma.Bombe CIPHERTEXT CRIB OFFSET
+ *
+ *  which prints the stops on the standard output and the rate at which
+ *  settings are tested on the standard error.
+ *  @author Charles Lee
+ */
+class Bombe {
+
+    /** A setting at which the bombe stopped. */
+    static class Stop {
+        /** A stop at CONFIG, where the central letter CENTRAL may have
+         *  any of the plugboard partners PARTNERS (a bit set of letter
+         *  indices). */
+        Stop(Configuration config, int central, int partners) {
+            _config = config;
+            _central = central;
+            _partners = partners;
+        }
+
+        /** Return the configuration of the machine at the stop. */
+        Configuration config() {
+            return _config;
+        }
+
+        /** Return the possible plugboard partners of the menu's central
+         *  letter, as upper-case letters. */
+        String partners() {
+            StringBuilder result = new StringBuilder();
+            for (int c = 0; c < ALPHABET_SIZE; c += 1) {
+                if ((_partners & (1 << c)) != 0) {
+                    result.append(Rotor.toLetter(c));
+                }
+            }
+            return result.toString();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s  %c=%s", _config,
+                                 Rotor.toLetter(_central), partners());
+        }
+
+        /** Configuration at the stop. */
+        private final Configuration _config;
+        /** Index of the central letter. */
+        private final int _central;
+        /** Possible partners of the central letter, as a bit set. */
+        private final int _partners;
+    }
+
+    /** A bombe for the menu given by CRIB at OFFSET in CIPHERTEXT.  Both
+     *  must consist of upper-case letters. */
+    Bombe(String ciphertext, String crib, int offset) {
+        if (offset < 0 || offset + crib.length() > ciphertext.length()) {
+            throw new IllegalArgumentException("crib out of range");
+        }
+        _offset = offset;
+        _length = crib.length();
+        int[] degree = new int[ALPHABET_SIZE];
+        int[] plain = new int[_length], cipher = new int[_length];
+        for (int i = 0; i < _length; i += 1) {
+            plain[i] = Rotor.toIndex(crib.charAt(i));
+            cipher[i] = Rotor.toIndex(ciphertext.charAt(offset + i));
+            if (plain[i] == cipher[i]) {
+                throw new IllegalArgumentException("letter enciphered to "
+                                                   + "itself");
+            }
+            degree[plain[i]] += 1;
+            degree[cipher[i]] += 1;
+        }
+
+        _start = new int[ALPHABET_SIZE + 1];
+        int central = 0;
+        for (int c = 0; c < ALPHABET_SIZE; c += 1) {
+            _start[c + 1] = _start[c] + degree[c];
+            if (degree[c] > degree[central]) {
+                central = c;
+            }
+        }
+        _central = central;
+        _neighbor = new int[2 * _length];
+        _position = new int[2 * _length];
+        int[] next = _start.clone();
+        for (int i = 0; i < _length; i += 1) {
+            _neighbor[next[plain[i]]] = cipher[i];
+            _position[next[plain[i]]] = i;
+            next[plain[i]] += 1;
+            _neighbor[next[cipher[i]]] = plain[i];
+            _position[next[cipher[i]]] = i;
+            next[cipher[i]] += 1;
+        }
+    }
+
+    /** Return the central letter of my menu: the one with the most
+     *  edges. */
+    char central() {
+        return Rotor.toLetter(_central);
+    }
+
+    /** Return the number of independent closed loops in my menu.  The
+     *  more loops, the fewer false stops. */
+    int loops() {
+        int[] parent = new int[ALPHABET_SIZE];
+        int nodes, components;
+        nodes = components = 0;
+        for (int c = 0; c < ALPHABET_SIZE; c += 1) {
+            parent[c] = c;
+        }
+        for (int c = 0; c < ALPHABET_SIZE; c += 1) {
+            for (int e = _start[c]; e < _start[c + 1]; e += 1) {
+                int a = find(parent, c), b = find(parent, _neighbor[e]);
+                if (a != b) {
+                    parent[a] = b;
+                }
+            }
+        }
+        for (int c = 0; c < ALPHABET_SIZE; c += 1) {
+            if (_start[c + 1] > _start[c]) {
+                nodes += 1;
+                if (find(parent, c) == c) {
+                    components += 1;
+                }
+            }
+        }
+        return _length - nodes + components;
+    }
+
+    /** Return the root of C in the union-find forest PARENT. */
+    private static int find(int[] parent, int c) {
+        while (parent[c] != c) {
+            c = parent[c];
+        }
+        return c;
+    }
+
+    /** Return the number of settings tested so far. */
+    long tested() {
+        return _tested.sum();
+    }
+
+    /** Return the number of stops found so far. */
+    long stops() {
+        return _stops.sum();
+    }
+
+    /** Return the total number of settings in a full run. */
+    long candidates() {
+        return (long) CribSearch.reflectors().size()
+            * CribSearch.fourthWheels().size()
+            * CribSearch.orders().size() * Machine.STATES;
+    }
+
+    /** Return the stops for all drum banks, running banks concurrently
+     *  on POOL. */
+    List<Stop> run(ForkJoinPool pool) {
+        List<Stop> result = Collections.synchronizedList(new ArrayList<>());
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (String reflector : CribSearch.reflectors()) {
+            for (String fourth : CribSearch.fourthWheels()) {
+                for (String[] order : CribSearch.orders()) {
+                    String[] names = {
+                        reflector, fourth, order[0], order[1], order[2]
+                    };
+                    tasks.add(pool.submit(() -> new Bank(names)
+                                          .run(result)));
+                }
+            }
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        return result;
+    }
+
+    /** Return the stops for the single drum bank with rotors NAMES
+     *  (reflector first), run in the current thread. */
+    List<Stop> run(String[] names) {
+        ArrayList<Stop> result = new ArrayList<>();
+        new Bank(names).run(result);
+        return result;
+    }
+
+    /** One drum bank: a machine for a fixed rotor selection, the
+     *  whole-machine permutations at all its settings, and the scratch
+     *  storage for testing its settings.  All are allocated (and the
+     *  permutations computed) when the bank is made; testing a setting
+     *  allocates nothing. */
+    private class Bank {
+        /** A bank with rotors NAMES, reflector first. */
+        Bank(String[] names) {
+            _names = names;
+            _machine = new Configuration(
+                names, new int[Configuration.NUM_ROTORS - 1]).machine();
+            _composites = new byte[Machine.STATES * ALPHABET_SIZE];
+            _machine.fillComposites(_composites);
+            _settings = new int[Configuration.NUM_ROTORS][_length];
+            _perms = new int[_length];
+            _lit = new int[ALPHABET_SIZE];
+            _queue = new int[ALPHABET_SIZE * ALPHABET_SIZE];
+        }
+
+        /** Test all settings, adding stops to RESULT. */
+        void run(List<Stop> result) {
+            Rotor[] rotors = _machine.getRotors();
+            for (int p1 = 0; p1 < ALPHABET_SIZE; p1 += 1) {
+                for (int p2 = 0; p2 < ALPHABET_SIZE; p2 += 1) {
+                    for (int p3 = 0; p3 < ALPHABET_SIZE; p3 += 1) {
+                        for (int p4 = 0; p4 < ALPHABET_SIZE; p4 += 1) {
+                            rotors[1].set(p1);
+                            rotors[2].set(p2);
+                            rotors[3].set(p3);
+                            rotors[4].set(p4);
+                            int partners = test();
+                            if (partners != 0) {
+                                _stops.increment();
+                                result.add(new Stop(
+                                    new Configuration(
+                                        _names,
+                                        new int[] { p1, p2, p3, p4 }),
+                                    _central, partners));
+                            }
+                        }
+                        _tested.add(ALPHABET_SIZE);
+                    }
+                }
+            }
+        }
+
+        /** Test the current setting of my machine, returning the
+         *  possible partners of the central letter as a bit set, or 0
+         *  if there is no stop.  Changes the machine's settings. */
+        private int test() {
+            _machine.advance(_offset);
+            _machine.trace(_length, _settings);
+            for (int i = 0; i < _length; i += 1) {
+                _perms[i] = ((_settings[1][i] * ALPHABET_SIZE
+                              + _settings[2][i]) * ALPHABET_SIZE
+                             + _settings[3][i]) * ALPHABET_SIZE
+                    + _settings[4][i];
+            }
+            for (int c = 0; c < ALPHABET_SIZE; c += 1) {
+                _lit[c] = 0;
+            }
+            int head, tail;
+            head = tail = 0;
+            _lit[_central] = 1;
+            _queue[tail++] = _central * ALPHABET_SIZE;
+            while (head < tail) {
+                int a = _queue[head] / ALPHABET_SIZE,
+                    w = _queue[head] % ALPHABET_SIZE;
+                head += 1;
+                if ((_lit[w] & (1 << a)) == 0) {
+                    _lit[w] |= 1 << a;
+                    _queue[tail++] = w * ALPHABET_SIZE + a;
+                }
+                for (int e = _start[a]; e < _start[a + 1]; e += 1) {
+                    int b = _neighbor[e],
+                        v = _composites[_perms[_position[e]] + w];
+                    if ((_lit[b] & (1 << v)) == 0) {
+                        _lit[b] |= 1 << v;
+                        _queue[tail++] = b * ALPHABET_SIZE + v;
+                    }
+                }
+                if (_lit[_central] == ALL) {
+                    return 0;
+                }
+            }
+            int count = Integer.bitCount(_lit[_central]);
+            return count == 1 ? _lit[_central] : ~_lit[_central] & ALL;
+        }
+
+        /** Names of my rotors. */
+        private final String[] _names;
+        /** My machine. */
+        private final Machine _machine;
+        /** Whole-machine permutations of my machine, as filled by
+         *  Machine.fillComposites. */
+        private final byte[] _composites;
+        /** Rotor settings at each position of the crib, as filled by
+         *  Machine.trace. */
+        private final int[][] _settings;
+        /** Index in _composites of the permutation at each position of
+         *  the crib. */
+        private final int[] _perms;
+        /** _lit[C] is the set of live wires in the bank for letter C. */
+        private final int[] _lit;
+        /** Queue of newly lit wires, each encoded as
+         *  letter * ALPHABET_SIZE + wire. */
+        private final int[] _queue;
+    }
+
+    /** Bit set of all letters. */
+    private static final int ALL = (1 << ALPHABET_SIZE) - 1;
+
+    /** Run a bombe for the crib ARGS[1] at offset ARGS[2] in the
+     *  ciphertext ARGS[0], using all available processors. */
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.err.println("Usage: java enigma.Bombe CIPHERTEXT CRIB"
+                               + " OFFSET");
+            System.exit(1);
+        }
+        Bombe bombe = new Bombe(Main.standardize(args[0]),
+                                Main.standardize(args[1]),
+                                Integer.parseInt(args[2]));
+        System.err.printf("Menu: central letter %c, %d loops%n",
+                          bombe.central(), bombe.loops());
+        long start = System.currentTimeMillis();
+        for (Stop stop : bombe.run(ForkJoinPool.commonPool())) {
+            System.out.println(stop);
+        }
+        double secs = Math.max(1, System.currentTimeMillis() - start) / 1e3;
+        System.err.printf("%d settings tested, %d stops, %.0f settings/sec,"
+                          + " %.1f stops/sec%n", bombe.tested(),
+                          bombe.stops(), bombe.tested() / secs,
+                          bombe.stops() / secs);
+    }
+
+    /** Offset of the crib in the ciphertext. */
+    private final int _offset;
+
+    /** Length of the crib. */
+    private final int _length;
+
+    /** Index of the central letter. */
+    private final int _central;
+
+    /** The edges of letter C are _neighbor[_start[C] .. _start[C+1]-1],
+     *  at crib positions _position[_start[C] .. _start[C+1]-1]. */
+    private final int[] _start, _neighbor, _position;
+
+    /** Number of settings tested. */
+    private final LongAdder _tested = new LongAdder();
+
+    /** Number of stops found. */
+    private final LongAdder _stops = new LongAdder();
+}
@@ -0,0 +1,229 @@
+package enigma;
+
+import java.util.Arrays;
+
+/** An immutable description of an enigma configuration: the names of the
+ *  reflector, the fixed fourth wheel and the three moving rotors (left to
+ *  right), the initial settings and ring settings of the four rotors
+ *  right of the reflector, and the plugboard pairs.
+ *  @author Charles Lee
+ */
+class Configuration {
+
+    /** Number of rotors in a machine, including the reflector. */
+    static final int NUM_ROTORS = 5;
+
+    /** Maximum number of plugboard pairs. */
+    static final int MAX_PAIRS = Rotor.ALPHABET_SIZE / 2;
+
+    /** A valid configuration line, used by benchmarks and checks. */
+    static final String SAMPLE = "* B BETA III IV I AXLE";
+
+    /** A configuration with rotors named NAMES (reflector first),
+     *  initial settings POSITIONS for rotors 1-4, and no plugboard
+     *  pairs. */
+    Configuration(String[] names, int[] positions) {
+        this(names, positions, null);
+    }
+
+    /** A configuration with rotors named NAMES (reflector first),
+     *  initial settings POSITIONS for rotors 1-4, and the plugboard
+     *  permutation PLUGBOARD (null for none), as returned by
+     *  parsePlugboard. */
+    Configuration(String[] names, int[] positions, int[] plugboard) {
+        this(names, positions, new int[NUM_ROTORS - 1], plugboard);
+    }
+
+    /** A configuration with rotors named NAMES (reflector first),
+     *  initial settings POSITIONS and ring settings RINGS for rotors
+     *  1-4, and the plugboard permutation PLUGBOARD (null for none), as
+     *  returned by parsePlugboard. */
+    Configuration(String[] names, int[] positions, int[] rings,
+                  int[] plugboard) {
+        assert names.length == NUM_ROTORS
+            && positions.length == NUM_ROTORS - 1
+            && rings.length == NUM_ROTORS - 1;
+        _names = names.clone();
+        _positions = positions.clone();
+        _rings = rings.clone();
+        _plugboard = plugboard == null ? null : plugboard.clone();
+        _key = String.join(" ", _names);
+    }
+
+    /** Return the configuration given by the configuration line LINE,
+     *  which must have the format specified in the assignment, optionally
+     *  followed by ring settings (in the same form as the initial
+     *  settings) and then plugboard pairs. */
+    static Configuration parse(String line) {
+        String[] fields = line.split("\\s+");
+        if (fields.length < NUM_ROTORS + 2 || !fields[0].equals("*")) {
+            throw new IllegalArgumentException("bad configuration line");
+        }
+        int[] positions = parseSettings(fields[NUM_ROTORS + 1]);
+        int[] rings = new int[NUM_ROTORS - 1];
+        int pairs = NUM_ROTORS + 2;
+        if (pairs < fields.length
+            && fields[pairs].length() == rings.length) {
+            rings = parseSettings(fields[pairs]);
+            pairs += 1;
+        }
+        return new Configuration(Arrays.copyOfRange(fields, 1,
+                                                    NUM_ROTORS + 1),
+                                 positions, rings,
+                                 parsePlugboard(fields, pairs));
+    }
+
+    /** Return the settings of rotors 1-4 given as letters by FIELD.
+     *  Throws IllegalArgumentException if FIELD is not NUM_ROTORS - 1
+     *  upper-case letters. */
+    static int[] parseSettings(String field) {
+        if (field.length() != NUM_ROTORS - 1) {
+            throw new IllegalArgumentException("bad rotor settings");
+        }
+        int[] settings = new int[NUM_ROTORS - 1];
+        for (int i = 0; i < settings.length; i += 1) {
+            settings[i] = Main.parsePosition(field.charAt(i));
+            if (settings[i] == -1) {
+                throw new IllegalArgumentException("bad rotor settings");
+            }
+        }
+        return settings;
+    }
+
+    /** Return the plugboard permutation given by the pairs of letters
+     *  FIELDS[FROM ..], or null if there are none.  Entry P of the
+     *  result is the letter P is swapped with, or P itself.  Throws
+     *  IllegalArgumentException if a field is not a pair of distinct
+     *  upper-case letters, or a letter appears in two pairs. */
+    static int[] parsePlugboard(String[] fields, int from) {
+        if (from >= fields.length) {
+            return null;
+        }
+        if (fields.length - from > MAX_PAIRS) {
+            throw new IllegalArgumentException("too many plugboard pairs");
+        }
+        int[] plugboard = new int[Rotor.ALPHABET_SIZE];
+        for (int p = 0; p < plugboard.length; p += 1) {
+            plugboard[p] = p;
+        }
+        for (int i = from; i < fields.length; i += 1) {
+            if (fields[i].length() != 2) {
+                throw new IllegalArgumentException("bad plugboard pair");
+            }
+            int a = Main.parsePosition(fields[i].charAt(0)),
+                b = Main.parsePosition(fields[i].charAt(1));
+            if (a == -1 || b == -1 || a == b
+                || plugboard[a] != a || plugboard[b] != b) {
+                throw new IllegalArgumentException("bad plugboard pair");
+            }
+            plugboard[a] = b;
+            plugboard[b] = a;
+        }
+        return plugboard;
+    }
+
+    /** Return the names of my rotors, reflector first, separated by
+     *  blanks.  Configurations with equal keys differ only in their
+     *  initial settings. */
+    String key() {
+        return _key;
+    }
+
+    /** Return the name of my Kth rotor, 0 being the reflector. */
+    String name(int k) {
+        return _names[k];
+    }
+
+    /** Return the initial setting of my Kth rotor, 1 <= K <= 4. */
+    int position(int k) {
+        return _positions[k - 1];
+    }
+
+    /** Return the ring setting of my Kth rotor, 1 <= K <= 4. */
+    int ring(int k) {
+        return _rings[k - 1];
+    }
+
+    /** Return my plugboard permutation, as for parsePlugboard, or null
+     *  if I have no plugboard pairs.  The result must not be
+     *  modified. */
+    int[] plugboard() {
+        return _plugboard;
+    }
+
+    /** Return new rotors, reflector first, as described by me. */
+    Rotor[] rotors() {
+        Rotor[] result = new Rotor[NUM_ROTORS];
+        result[0] = new Reflector(_names[0], 0);
+        result[1] = new FixedRotor(_names[1], _positions[0]);
+        for (int k = 2; k < NUM_ROTORS; k += 1) {
+            result[k] = new Rotor(_names[k], _positions[k - 1]);
+        }
+        for (int k = 1; k < NUM_ROTORS; k += 1) {
+            result[k].setRing(_rings[k - 1]);
+        }
+        return result;
+    }
+
+    /** Return a new machine configured as I describe. */
+    Machine machine() {
+        Machine m = new Machine();
+        configure(m);
+        return m;
+    }
+
+    /** Give M new rotors and the plugboard I describe. */
+    void configure(Machine m) {
+        m.replaceRotors(rotors(), _plugboard);
+    }
+
+    /** Set the rotors of M, which must have the rotors I name, to my
+     *  initial and ring settings, and set its plugboard to mine. */
+    void reset(Machine m) {
+        m.setPlugboard(_plugboard);
+        m.setRings(_rings);
+        Rotor[] rotors = m.getRotors();
+        for (int k = 1; k < NUM_ROTORS; k += 1) {
+            rotors[k].set(_positions[k - 1]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("* ").append(_key);
+        result.append(' ');
+        for (int p : _positions) {
+            result.append(Rotor.toLetter(p));
+        }
+        if (!Arrays.equals(_rings, new int[_rings.length])) {
+            result.append(' ');
+            for (int r : _rings) {
+                result.append(Rotor.toLetter(r));
+            }
+        }
+        if (_plugboard != null) {
+            for (int p = 0; p < _plugboard.length; p += 1) {
+                if (p < _plugboard[p]) {
+                    result.append(' ').append(Rotor.toLetter(p))
+                        .append(Rotor.toLetter(_plugboard[p]));
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    /** Names of my rotors, reflector first. */
+    private final String[] _names;
+
+    /** Initial settings of rotors 1-4. */
+    private final int[] _positions;
+
+    /** Ring settings of rotors 1-4. */
+    private final int[] _rings;
+
+    /** Plugboard permutation, or null. */
+    private final int[] _plugboard;
+
+    /** Value of key(). */
+    private final String _key;
+}
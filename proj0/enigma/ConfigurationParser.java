@@ -0,0 +1,187 @@
+package enigma;
+
+import static enigma.Configuration.MAX_PAIRS;
+import static enigma.Configuration.NUM_ROTORS;
+
+import java.util.Arrays;
+
+/** A reusable parser of configuration lines, which reads a line directly
+ *  from a character buffer and configures a machine from it without
+ *  building Strings, String arrays or a Configuration.  The line is
+ *  divided into fields in one pass, recording only their bounds, and
+ *  rotor names are looked up in place.  When the machine already has
+ *  the rotors a line names, it is reset rather than given new rotors.
+ *
+ *  It accepts and rejects exactly the lines that
+ *  Main.checkConfigurationLine does: fields are separated by single
+ *  blanks, trailing blanks being ignored; a line is a configuration
+ *  line if its first field is "*" and it has at least six more; and it
+ *  is a valid one if those name a reflector, a fixed rotor and three
+ *  rotors in RotorCatalog.current(), followed by four initial settings,
+ *  optionally four ring settings, and at most MAX_PAIRS plugboard
+ *  pairs.  A parser is not safe for use by several threads at once.
+ *  @author Charles Lee
+ */
+class ConfigurationParser {
+
+    /** Most fields in a valid configuration line. */
+    static final int MAX_FIELDS = NUM_ROTORS + 3 + MAX_PAIRS;
+
+    /** Parse the line LINE[0 .. LEN-1].  Return false if it is not a
+     *  configuration line.  Otherwise, throw IllegalArgumentException
+     *  if it is not a valid one, or return true, having recorded it for
+     *  configure, if it is. */
+    boolean parse(char[] line, int len) {
+        while (len > 0 && line[len - 1] == ' ') {
+            len -= 1;
+        }
+        int n = 0;
+        boolean tooMany = false;
+        for (int start = 0; start <= len; n += 1) {
+            int end = start;
+            while (end < len && line[end] != ' ') {
+                end += 1;
+            }
+            if (n < MAX_FIELDS) {
+                _starts[n] = start;
+                _ends[n] = end;
+            } else {
+                tooMany = true;
+            }
+            start = end + 1;
+        }
+        if (n < NUM_ROTORS + 2 || _ends[0] != 1 || line[0] != '*') {
+            return false;
+        }
+        if (tooMany) {
+            throw new IllegalArgumentException("too many plugboard pairs");
+        }
+        RotorCatalog catalog = RotorCatalog.current();
+        for (int k = 0; k < NUM_ROTORS; k += 1) {
+            int index = catalog.index(line, _starts[k + 1], _ends[k + 1]);
+            if (index < 0 || catalog.kind(index) != KINDS[k]) {
+                throw new IllegalArgumentException("bad rotor name");
+            }
+            _indices[k] = index;
+        }
+        int field = NUM_ROTORS + 1;
+        parseSettings(line, field, _positions);
+        field += 1;
+        Arrays.fill(_rings, 0);
+        if (field < n && _ends[field] - _starts[field] == _rings.length) {
+            parseSettings(line, field, _rings);
+            field += 1;
+        }
+        _pairs = n - field;
+        if (_pairs > MAX_PAIRS) {
+            throw new IllegalArgumentException("too many plugboard pairs");
+        }
+        for (int p = 0; p < _plugboard.length; p += 1) {
+            _plugboard[p] = p;
+        }
+        for (; field < n; field += 1) {
+            int start = _starts[field];
+            if (_ends[field] - start != 2) {
+                throw new IllegalArgumentException("bad plugboard pair");
+            }
+            int a = Main.parsePosition(line[start]),
+                b = Main.parsePosition(line[start + 1]);
+            if (a == -1 || b == -1 || a == b
+                || _plugboard[a] != a || _plugboard[b] != b) {
+                throw new IllegalArgumentException("bad plugboard pair");
+            }
+            _plugboard[a] = b;
+            _plugboard[b] = a;
+        }
+        _catalog = catalog;
+        return true;
+    }
+
+    /** Configure M as described by the line last accepted by parse.  If
+     *  M already has the rotors named, they are kept, and only their
+     *  settings and M's plugboard are changed. */
+    void configure(Machine m) {
+        int[] plugboard = _pairs == 0 ? null : _plugboard;
+        Rotor[] rotors = m.getRotors();
+        if (hasRotors(rotors)) {
+            m.setPlugboard(plugboard);
+            m.setRings(_rings);
+            for (int k = 1; k < NUM_ROTORS; k += 1) {
+                rotors[k].set(_positions[k - 1]);
+            }
+            return;
+        }
+        rotors = new Rotor[NUM_ROTORS];
+        rotors[0] = new Reflector(_catalog.name(_indices[0]), 0);
+        rotors[1] = new FixedRotor(_catalog.name(_indices[1]),
+                                   _positions[0]);
+        for (int k = 2; k < NUM_ROTORS; k += 1) {
+            rotors[k] = new Rotor(_catalog.name(_indices[k]),
+                                  _positions[k - 1]);
+        }
+        for (int k = 1; k < NUM_ROTORS; k += 1) {
+            rotors[k].setRing(_rings[k - 1]);
+        }
+        m.replaceRotors(rotors, plugboard);
+    }
+
+    /** Set SETTINGS to the settings given as letters by field FIELD of
+     *  LINE.  Throws IllegalArgumentException if the field is not
+     *  SETTINGS.length upper-case letters. */
+    private void parseSettings(char[] line, int field, int[] settings) {
+        int start = _starts[field];
+        if (_ends[field] - start != settings.length) {
+            throw new IllegalArgumentException("bad rotor settings");
+        }
+        for (int i = 0; i < settings.length; i += 1) {
+            settings[i] = Main.parsePosition(line[start + i]);
+            if (settings[i] == -1) {
+                throw new IllegalArgumentException("bad rotor settings");
+            }
+        }
+    }
+
+    /** Return true iff ROTORS are the rotors named by the line last
+     *  accepted, from the same catalog. */
+    private boolean hasRotors(Rotor[] rotors) {
+        for (int k = 0; k < NUM_ROTORS; k += 1) {
+            if (rotors[k] == null || rotors[k].getCatalog() != _catalog
+                || rotors[k].getIndex() != _indices[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The kinds of the rotors named in a configuration line, in
+     *  order. */
+    private static final RotorCatalog.Kind[] KINDS = {
+        RotorCatalog.Kind.REFLECTOR, RotorCatalog.Kind.FIXED,
+        RotorCatalog.Kind.ROTOR, RotorCatalog.Kind.ROTOR,
+        RotorCatalog.Kind.ROTOR
+    };
+
+    /** Start of each field of the line being parsed. */
+    private final int[] _starts = new int[MAX_FIELDS];
+
+    /** End (exclusive) of each field of the line being parsed. */
+    private final int[] _ends = new int[MAX_FIELDS];
+
+    /** Catalog in which the last line accepted was looked up. */
+    private RotorCatalog _catalog;
+
+    /** Catalog indices of the rotors named, reflector first. */
+    private final int[] _indices = new int[NUM_ROTORS];
+
+    /** Initial settings of rotors 1-4. */
+    private final int[] _positions = new int[NUM_ROTORS - 1];
+
+    /** Ring settings of rotors 1-4. */
+    private final int[] _rings = new int[NUM_ROTORS - 1];
+
+    /** Plugboard permutation, as for Configuration.parsePlugboard. */
+    private final int[] _plugboard = new int[Rotor.ALPHABET_SIZE];
+
+    /** Number of plugboard pairs. */
+    private int _pairs;
+}
@@ -0,0 +1,228 @@
+package enigma;
+
+import static enigma.Rotor.ALPHABET_SIZE;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A known-plaintext search over all enigma configurations.  Given a
+ *  ciphertext and a crib (plaintext known to occur at a given offset in
+ *  it), tries every reflector, fourth wheel, order of three distinct
+ *  moving rotors (all from RotorCatalog.current()) and initial setting,
+ *  reporting the configurations that encipher the crib to the
+ *  ciphertext at that offset.  Since an enigma
+ *  never enciphers a letter to itself, a crib placement in which some
+ *  letter matches its ciphertext letter is rejected without search.
+ *  The usage is
+ *
+ *      java enigma.CribSearch CIPHERTEXT CRIB OFFSET
+ *
+ *  which prints the matching configuration lines on the standard
+ *  output and progress on the standard error.
+ *  @author Charles Lee
+ */
+class CribSearch {
+
+    /** Number of rotors in each rotor order. */
+    static final int ORDER_LENGTH = 3;
+
+    /** Milliseconds between progress reports by main. */
+    static final long PROGRESS_INTERVAL = 5000;
+
+    /** A search for configurations that convert CRIB to the letters of
+     *  CIPHERTEXT starting at OFFSET.  Both must consist of upper-case
+     *  letters. */
+    CribSearch(String ciphertext, String crib, int offset) {
+        if (offset < 0 || offset + crib.length() > ciphertext.length()) {
+            throw new IllegalArgumentException("crib out of range");
+        }
+        _offset = offset;
+        _cipher = new int[crib.length()];
+        _crib = new int[crib.length()];
+        for (int i = 0; i < crib.length(); i += 1) {
+            _cipher[i] = Rotor.toIndex(ciphertext.charAt(offset + i));
+            _crib[i] = Rotor.toIndex(crib.charAt(i));
+        }
+    }
+
+    /** Return true iff my crib may occur at my offset: that is, no
+     *  letter of the crib equals the ciphertext letter under it. */
+    boolean placementPossible() {
+        for (int i = 0; i < _crib.length; i += 1) {
+            if (_crib[i] == _cipher[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the offsets in CIPHERTEXT at which CRIB may occur. */
+    static List<Integer> possibleOffsets(String ciphertext, String crib) {
+        ArrayList<Integer> result = new ArrayList<>();
+        for (int k = 0; k + crib.length() <= ciphertext.length(); k += 1) {
+            if (new CribSearch(ciphertext, crib, k).placementPossible()) {
+                result.add(k);
+            }
+        }
+        return result;
+    }
+
+    /** Return the total number of configurations to be tried. */
+    long candidates() {
+        return (long) reflectors().size() * fourthWheels().size()
+            * orders().size() * Machine.STATES;
+    }
+
+    /** Return the number of configurations tried so far. */
+    long tried() {
+        return _tried.sum();
+    }
+
+    /** Return all configurations that convert my crib to my ciphertext,
+     *  searching on POOL.  Returns an empty list at once if
+     *  !placementPossible(). */
+    List<Configuration> search(ForkJoinPool pool) {
+        List<Configuration> result =
+            Collections.synchronizedList(new ArrayList<>());
+        if (!placementPossible()) {
+            return result;
+        }
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (String reflector : reflectors()) {
+            for (String fourth : fourthWheels()) {
+                for (String[] order : orders()) {
+                    String[] names = {
+                        reflector, fourth, order[0], order[1], order[2]
+                    };
+                    tasks.add(pool.submit(() -> search(names, result)));
+                }
+            }
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        return result;
+    }
+
+    /** Try all initial settings of the rotors named NAMES (reflector
+     *  first), adding those that match to RESULT. */
+    void search(String[] names, List<Configuration> result) {
+        int[] zero = new int[Configuration.NUM_ROTORS - 1];
+        Machine m = new Configuration(names, zero).machine();
+        Rotor[] rotors = m.getRotors();
+        for (int p1 = 0; p1 < ALPHABET_SIZE; p1 += 1) {
+            for (int p2 = 0; p2 < ALPHABET_SIZE; p2 += 1) {
+                for (int p3 = 0; p3 < ALPHABET_SIZE; p3 += 1) {
+                    for (int p4 = 0; p4 < ALPHABET_SIZE; p4 += 1) {
+                        rotors[1].set(p1);
+                        rotors[2].set(p2);
+                        rotors[3].set(p3);
+                        rotors[4].set(p4);
+                        if (matches(m)) {
+                            result.add(new Configuration(
+                                names, new int[] { p1, p2, p3, p4 }));
+                        }
+                    }
+                    _tried.add(ALPHABET_SIZE);
+                }
+            }
+        }
+    }
+
+    /** Return true iff M, at its initial setting, converts my crib to
+     *  my ciphertext.  Changes M's rotor settings. */
+    private boolean matches(Machine m) {
+        m.advance(_offset);
+        for (int i = 0; i < _crib.length; i += 1) {
+            if (m.convert(_crib[i]) != _cipher[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return all ordered selections of ORDER_LENGTH distinct moving
+     *  rotors from RotorCatalog.current(). */
+    static List<String[]> orders() {
+        List<String> rotors =
+            RotorCatalog.current().names(RotorCatalog.Kind.ROTOR);
+        ArrayList<String[]> result = new ArrayList<>();
+        for (String a : rotors) {
+            for (String b : rotors) {
+                for (String c : rotors) {
+                    if (!a.equals(b) && !a.equals(c) && !b.equals(c)) {
+                        result.add(new String[] { a, b, c });
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the names of the reflectors in RotorCatalog.current(). */
+    static List<String> reflectors() {
+        return RotorCatalog.current().names(RotorCatalog.Kind.REFLECTOR);
+    }
+
+    /** Return the names of the fixed fourth wheels in
+     *  RotorCatalog.current(). */
+    static List<String> fourthWheels() {
+        return RotorCatalog.current().names(RotorCatalog.Kind.FIXED);
+    }
+
+    /** Search for ARGS[1] in ARGS[0] at offset ARGS[2], using all
+     *  available processors. */
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.err.println("Usage: java enigma.CribSearch CIPHERTEXT"
+                               + " CRIB OFFSET");
+            System.exit(1);
+        }
+        CribSearch search =
+            new CribSearch(Main.standardize(args[0]),
+                           Main.standardize(args[1]),
+                           Integer.parseInt(args[2]));
+        long start = System.currentTimeMillis();
+        Thread progress = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(PROGRESS_INTERVAL);
+                    search.report(start);
+                }
+            } catch (InterruptedException excp) {
+                return;
+            }
+        });
+        progress.setDaemon(true);
+        progress.start();
+        for (Configuration config : search.search(ForkJoinPool.commonPool())) {
+            System.out.println(config);
+        }
+        progress.interrupt();
+        search.report(start);
+    }
+
+    /** Print my progress and rate on the standard error, for a search
+     *  started at time START (in milliseconds). */
+    private void report(long start) {
+        double secs = Math.max(1, System.currentTimeMillis() - start) / 1e3;
+        System.err.printf("%d/%d configurations tried, %.0f/sec%n",
+                          tried(), candidates(), tried() / secs);
+    }
+
+    /** Offset of the crib in the ciphertext. */
+    private final int _offset;
+
+    /** Indices of the ciphertext letters under the crib. */
+    private final int[] _cipher;
+
+    /** Indices of the crib letters. */
+    private final int[] _crib;
+
+    /** Number of configurations tried. */
+    private final LongAdder _tried = new LongAdder();
+}
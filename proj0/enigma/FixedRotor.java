@@ -20,6 +20,11 @@ class FixedRotor extends Rotor {
         return false;
     }
 
+    @Override
+    int getNotches() {
+        return 0;
+    }
+
     /** Fixed rotors do not advance. */
     @Override
     void advance() {
@@ -0,0 +1,372 @@
+package enigma;
+
+import static enigma.Rotor.ALPHABET_SIZE;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A ciphertext-only attack.  For each rotor selection, every initial
+ *  setting is tried without a plugboard, and the CANDIDATES settings
+ *  whose decryptions have the highest index of coincidence are kept.
+ *  For each of those, plugboard pairs are then found by hill climbing:
+ *  repeatedly making the single change of plugging two letters
+ *  together that most improves the score of the decryption, first by
+ *  index of coincidence and then, if an NgramTable is given, by n-gram
+ *  log-likelihood.  Ring settings are taken to be 'A'.  Rotor
+ *  selections are searched concurrently.  The usage is
+ *
+ *      java enigma.HillClimb CIPHERTEXT [ NGRAMS [ ROTORS ] ]
+ *
+ *  where NGRAMS is an n-gram count file (see NgramTable), or "-" for
+ *  none, and ROTORS, if present, restricts the search to the five named
+ *  rotors (reflector first).  The best configuration and decryption
+ *  are printed on the standard output, and the number of decryptions
+ *  scored per second on the standard error.
+ *  @author Charles Lee
+ */
+class HillClimb {
+
+    /** Number of initial settings per rotor selection whose plugboards
+     *  are searched. */
+    static final int CANDIDATES = 8;
+
+    /** Milliseconds between progress reports by main. */
+    static final long PROGRESS_INTERVAL = 5000;
+
+    /** The result of a search: a configuration, the score of the
+     *  decryption it gives, and that decryption. */
+    static class Result {
+        /** A result for CONFIG, whose decryption TEXT scores SCORE. */
+        Result(Configuration config, double score, String text) {
+            _config = config;
+            _score = score;
+            _text = text;
+        }
+
+        /** Return my configuration. */
+        Configuration config() {
+            return _config;
+        }
+
+        /** Return the score of my decryption. */
+        double score() {
+            return _score;
+        }
+
+        /** Return my decryption. */
+        String text() {
+            return _text;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s%n%s", _config, _text);
+        }
+
+        /** My configuration. */
+        private final Configuration _config;
+        /** Score of my decryption. */
+        private final double _score;
+        /** My decryption. */
+        private final String _text;
+    }
+
+    /** An attack on CIPHERTEXT, which consists of upper-case letters,
+     *  scoring final decryptions with NGRAMS, or only by index of
+     *  coincidence if NGRAMS is null. */
+    HillClimb(String ciphertext, NgramTable ngrams) {
+        _cipher = ciphertext.toCharArray();
+        _ngrams = ngrams;
+    }
+
+    /** Return the number of decryptions scored so far. */
+    long scored() {
+        return _scored.sum();
+    }
+
+    /** Return the best result for all rotor selections, searching them
+     *  concurrently on POOL. */
+    Result search(ForkJoinPool pool) {
+        ArrayList<ForkJoinTask<Result>> tasks = new ArrayList<>();
+        for (String reflector : CribSearch.reflectors()) {
+            for (String fourth : CribSearch.fourthWheels()) {
+                for (String[] order : CribSearch.orders()) {
+                    String[] names = {
+                        reflector, fourth, order[0], order[1], order[2]
+                    };
+                    tasks.add(pool.submit(() -> search(names)));
+                }
+            }
+        }
+        Result best = null;
+        for (ForkJoinTask<Result> task : tasks) {
+            best = better(best, task.join());
+        }
+        return best;
+    }
+
+    /** Return the best result for the rotors named NAMES (reflector
+     *  first), searching in the current thread. */
+    Result search(String[] names) {
+        return new Worker(names).search();
+    }
+
+    /** Return whichever of A and B has the higher score, where either
+     *  may be null. */
+    private static Result better(Result a, Result b) {
+        if (a == null || (b != null && b.score() > a.score())) {
+            return b;
+        }
+        return a;
+    }
+
+    /** The search for one rotor selection, with its scratch storage.
+     *  Scoring a decryption allocates nothing. */
+    private class Worker {
+        /** A search of the rotors named NAMES. */
+        Worker(String[] names) {
+            _names = names;
+            _machine = new Configuration(
+                names, new int[Configuration.NUM_ROTORS - 1]).machine();
+            _text = new char[_cipher.length];
+            _perms = new byte[_cipher.length][];
+            _plugboard = new int[ALPHABET_SIZE];
+            _trial = new int[ALPHABET_SIZE];
+            _best = new int[CANDIDATES];
+            _bestScores = new double[CANDIDATES];
+        }
+
+        /** Return the best result for my rotors. */
+        Result search() {
+            findSettings();
+            Result result = null;
+            for (int k = 0; k < CANDIDATES; k += 1) {
+                if (_bestScores[k] > 0) {
+                    result = better(result, climb(_best[k]));
+                }
+            }
+            return result;
+        }
+
+        /** Fill _best with the CANDIDATES initial settings, packed as
+         *  for Machine.STATES, whose decryptions without a plugboard
+         *  have the highest index of coincidence. */
+        private void findSettings() {
+            for (int s = 0; s < Machine.STATES; s += 1) {
+                set(s);
+                System.arraycopy(_cipher, 0, _text, 0, _cipher.length);
+                _machine.convert(_text, 0, _text.length);
+                double score = _ioc.score(_text, _text.length);
+                int k = CANDIDATES;
+                while (k > 0 && score > _bestScores[k - 1]) {
+                    if (k < CANDIDATES) {
+                        _bestScores[k] = _bestScores[k - 1];
+                        _best[k] = _best[k - 1];
+                    }
+                    k -= 1;
+                }
+                if (k < CANDIDATES) {
+                    _bestScores[k] = score;
+                    _best[k] = s;
+                }
+                if ((s + 1) % ALPHABET_SIZE == 0) {
+                    _scored.add(ALPHABET_SIZE);
+                }
+            }
+        }
+
+        /** Set the rotors of my machine to the initial settings packed
+         *  in S. */
+        private void set(int s) {
+            Rotor[] rotors = _machine.getRotors();
+            for (int k = Configuration.NUM_ROTORS - 1; k > 0; k -= 1) {
+                rotors[k].set(s % ALPHABET_SIZE);
+                s /= ALPHABET_SIZE;
+            }
+        }
+
+        /** Return the result of hill climbing on the plugboard from
+         *  initial settings S. */
+        private Result climb(int s) {
+            set(s);
+            for (int i = 0; i < _cipher.length; i += 1) {
+                _perms[i] = _machine.stepComposite();
+            }
+            for (int c = 0; c < ALPHABET_SIZE; c += 1) {
+                _plugboard[c] = c;
+            }
+            double score = climb(_ioc);
+            if (_ngrams != null) {
+                score = climb(_ngrams);
+            }
+            int[] positions = new int[Configuration.NUM_ROTORS - 1];
+            for (int k = positions.length - 1; k >= 0; k -= 1) {
+                positions[k] = s % ALPHABET_SIZE;
+                s /= ALPHABET_SIZE;
+            }
+            decrypt(_plugboard);
+            return new Result(new Configuration(_names, positions,
+                                                pairs() == 0 ? null
+                                                : _plugboard),
+                              score, new String(_text));
+        }
+
+        /** Improve _plugboard by hill climbing with SCORER, returning
+         *  the final score.  Each step tries connecting every pair of
+         *  letters (disconnecting their current partners), and makes
+         *  the best change if it improves the score and leaves no more
+         *  than Configuration.MAX_PAIRS pairs. */
+        private double climb(Scorer scorer) {
+            decrypt(_plugboard);
+            double score = scorer.score(_text, _text.length);
+            while (true) {
+                int bestA, bestB;
+                bestA = bestB = -1;
+                double bestScore = score;
+                for (int a = 0; a < ALPHABET_SIZE; a += 1) {
+                    for (int b = a + 1; b < ALPHABET_SIZE; b += 1) {
+                        if (_plugboard[a] == b || !connect(a, b)) {
+                            continue;
+                        }
+                        decrypt(_trial);
+                        double trial = scorer.score(_text, _text.length);
+                        _scored.increment();
+                        if (trial > bestScore) {
+                            bestScore = trial;
+                            bestA = a;
+                            bestB = b;
+                        }
+                    }
+                }
+                if (bestA < 0) {
+                    return score;
+                }
+                connect(bestA, bestB);
+                System.arraycopy(_trial, 0, _plugboard, 0, ALPHABET_SIZE);
+                score = bestScore;
+            }
+        }
+
+        /** Set _trial to _plugboard with A and B connected to each other
+         *  and their former partners unplugged, returning false if that
+         *  would exceed Configuration.MAX_PAIRS pairs. */
+        private boolean connect(int a, int b) {
+            System.arraycopy(_plugboard, 0, _trial, 0, ALPHABET_SIZE);
+            _trial[_trial[a]] = _trial[a];
+            _trial[_trial[b]] = _trial[b];
+            _trial[a] = b;
+            _trial[b] = a;
+            int pairs = 0;
+            for (int c = 0; c < ALPHABET_SIZE; c += 1) {
+                if (_trial[c] > c) {
+                    pairs += 1;
+                }
+            }
+            return pairs <= Configuration.MAX_PAIRS;
+        }
+
+        /** Return the number of pairs on _plugboard. */
+        private int pairs() {
+            int pairs = 0;
+            for (int c = 0; c < ALPHABET_SIZE; c += 1) {
+                if (_plugboard[c] > c) {
+                    pairs += 1;
+                }
+            }
+            return pairs;
+        }
+
+        /** Set _text to the decryption of the ciphertext with the
+         *  plugboard PLUGBOARD, using the permutations in _perms. */
+        private void decrypt(int[] plugboard) {
+            for (int i = 0; i < _cipher.length; i += 1) {
+                int c = plugboard[Rotor.toIndex(_cipher[i])];
+                _text[i] = Rotor.toLetter(plugboard[_perms[i][c]]);
+            }
+        }
+
+        /** Names of my rotors. */
+        private final String[] _names;
+        /** My machine, without a plugboard. */
+        private final Machine _machine;
+        /** Index of coincidence scorer. */
+        private final IndexOfCoincidence _ioc = new IndexOfCoincidence();
+        /** The current decryption. */
+        private final char[] _text;
+        /** Machine permutations (without plugboard) at each position of
+         *  the ciphertext, for the setting being climbed. */
+        private final byte[][] _perms;
+        /** The plugboard found so far. */
+        private final int[] _plugboard;
+        /** The plugboard being tried. */
+        private final int[] _trial;
+        /** The best initial settings found, best first. */
+        private final int[] _best;
+        /** Indices of coincidence for _best. */
+        private final double[] _bestScores;
+    }
+
+    /** Attack the ciphertext ARGS[0] as described above. */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: java enigma.HillClimb CIPHERTEXT"
+                               + " [ NGRAMS [ ROTORS ] ]");
+            System.exit(1);
+        }
+        NgramTable ngrams = null;
+        if (args.length > 1 && !args[1].equals("-")) {
+            try (Reader input = new FileReader(args[1])) {
+                ngrams = NgramTable.read(input);
+            } catch (IOException excp) {
+                System.err.printf("Input error: %s%n", excp.getMessage());
+                System.exit(1);
+            }
+        }
+        HillClimb climb = new HillClimb(Main.standardize(args[0]), ngrams);
+        long start = System.currentTimeMillis();
+        Thread progress = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(PROGRESS_INTERVAL);
+                    climb.report(start);
+                }
+            } catch (InterruptedException excp) {
+                return;
+            }
+        });
+        progress.setDaemon(true);
+        progress.start();
+        Result result;
+        if (args.length > 2) {
+            result = climb.search(args[2].trim().split("\\s+"));
+        } else {
+            result = climb.search(ForkJoinPool.commonPool());
+        }
+        progress.interrupt();
+        System.out.println(result);
+        climb.report(start);
+    }
+
+    /** Print the number of decryptions scored, and the rate, on the
+     *  standard error, for a search started at time START (in
+     *  milliseconds). */
+    private void report(long start) {
+        double secs = Math.max(1, System.currentTimeMillis() - start) / 1e3;
+        System.err.printf("%d decryptions scored, %.0f/sec%n", scored(),
+                          scored() / secs);
+    }
+
+    /** The ciphertext. */
+    private final char[] _cipher;
+
+    /** Final scorer, or null. */
+    private final NgramTable _ngrams;
+
+    /** Number of decryptions scored. */
+    private final LongAdder _scored = new LongAdder();
+}
@@ -0,0 +1,38 @@
+package enigma;
+
+import static enigma.Rotor.ALPHABET_SIZE;
+
+/** Scores text by its index of coincidence: the probability that two
+ *  letters drawn from it at random without replacement are equal.
+ *  English text has an index near 0.066, and uniformly random letters
+ *  one near 1/26 = 0.038.  The index is unchanged by relabeling the
+ *  letters of the text, but a wrong or missing plugboard does more than
+ *  relabel: each letter of a decryption passes through it twice, and
+ *  letters wired to a wrong partner decrypt to near-random ones.  So
+ *  the index only approximately scores rotor settings while the
+ *  plugboard is partly right, rising as more of its pairs are found.
+ *  It is useful for choosing rotor settings and early plugboard pairs,
+ *  not as proof that a setting is right.  An IndexOfCoincidence holds
+ *  scratch storage and must be used by one thread at a time.
+ *  @author Charles Lee
+ */
+class IndexOfCoincidence implements Scorer {
+
+    @Override
+    public double score(char[] text, int n) {
+        for (int c = 0; c < ALPHABET_SIZE; c += 1) {
+            _counts[c] = 0;
+        }
+        for (int i = 0; i < n; i += 1) {
+            _counts[Rotor.toIndex(text[i])] += 1;
+        }
+        long sum = 0;
+        for (int c = 0; c < ALPHABET_SIZE; c += 1) {
+            sum += (long) _counts[c] * (_counts[c] - 1);
+        }
+        return n < 2 ? 0.0 : (double) sum / ((long) n * (n - 1));
+    }
+
+    /** Letter counts for the text being scored. */
+    private final int[] _counts = new int[ALPHABET_SIZE];
+}
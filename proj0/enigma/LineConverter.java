@@ -0,0 +1,236 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.Arrays;
+
+/** Converts enigma input line by line, as enigma.Main does, through
+ *  reusable buffers.  Each message line is read into one buffer,
+ *  standardized and converted there in place, and written in groups of
+ *  five letters into a single output buffer, so that once the buffers
+ *  have grown to the longest line, message lines are converted
+ *  without allocation.  Configuration lines are parsed in place by a
+ *  ConfigurationParser.  The time spent in each stage is recorded in
+ *  Metrics.
+ *  @author Charles Lee
+ */
+class LineConverter {
+
+    /** Initial size of my buffers. */
+    static final int BUFFER_SIZE = 1 << 13;
+
+    /** A converter that converts with M and writes to OUT. */
+    LineConverter(Machine m, OutputStream out) {
+        _machine = m;
+        _out = out;
+        _input = new char[BUFFER_SIZE];
+        _line = new char[BUFFER_SIZE];
+        _output = new byte[BUFFER_SIZE];
+    }
+
+    /** Return true iff I have seen a configuration line. */
+    boolean isConfigured() {
+        return _configured;
+    }
+
+    /** Convert all lines of INPUT, writing the results to my output
+     *  stream, which is flushed at the end.  A line ends with '\n',
+     *  '\r' or "\r\n".  If the input is erroneous, the results for the
+     *  lines before the error are written and flushed before
+     *  IOException is thrown. */
+    void convert(Reader input) throws IOException {
+        boolean afterCR = false, inLine = false;
+        try {
+            while (true) {
+                int n = input.read(_input);
+                if (n < 0) {
+                    break;
+                }
+                for (int i = 0; i < n; i += 1) {
+                    char c = _input[i];
+                    if (c == '\n' && afterCR) {
+                        afterCR = false;
+                    } else if (c == '\n' || c == '\r') {
+                        afterCR = c == '\r';
+                        line(_line, _length);
+                        _length = 0;
+                        inLine = false;
+                    } else {
+                        afterCR = false;
+                        inLine = true;
+                        if (_length == _line.length) {
+                            _line = Arrays.copyOf(_line, 2 * _length);
+                        }
+                        _line[_length] = c;
+                        _length += 1;
+                    }
+                }
+            }
+            if (inLine) {
+                line(_line, _length);
+                _length = 0;
+            }
+        } finally {
+            flush();
+        }
+    }
+
+    /** Handle the line in LINE[0 .. LEN-1], either as a configuration
+     *  line or as a message line.  A line that starts as a
+     *  configuration line but is not a valid one (see
+     *  Main.isConfigurationLine) is an error, signaled by
+     *  IOException. */
+    void line(char[] line, int len) throws IOException {
+        if (len > 0 && line[0] == '*') {
+            long start = Metrics.now();
+            boolean valid;
+            try {
+                valid = _parser.parse(line, len);
+            } catch (IllegalArgumentException excp) {
+                throw new IOException("bad configuration line");
+            }
+            if (valid) {
+                _parser.configure(_machine);
+                _configured = true;
+                CONFIGURE.recordSince(start);
+                return;
+            }
+        }
+        if (!_configured) {
+            throw new IOException("message without a configuration");
+        }
+        convertLine(line, len);
+    }
+
+    /** Convert the message line LINE[0 .. LEN-1], which is overwritten,
+     *  adding the result in groups of five letters and a line
+     *  terminator to my output. */
+    void convertLine(char[] line, int len) throws IOException {
+        long start = Metrics.now();
+        for (int i = 0; i < len; i += 1) {
+            if (line[i] >= ASCII_LIMIT) {
+                line = Main.standardize(new String(line, 0, len))
+                    .toCharArray();
+                len = line.length;
+                break;
+            }
+        }
+        int n = standardize(line, len);
+        STANDARDIZE.recordSince(start);
+        start = Metrics.now();
+        _machine.convert(line, 0, n);
+        CONVERT.recordSince(start);
+        start = Metrics.now();
+        int group = StreamConverter.GROUP_SIZE;
+        reserve(n + n / group + NEWLINE.length);
+        for (int i = 0; i < n; i += 1) {
+            if (i > 0 && i % group == 0) {
+                _output[_count] = ' ';
+                _count += 1;
+            }
+            _output[_count] = (byte) line[i];
+            _count += 1;
+        }
+        for (int i = 0; i < NEWLINE.length; i += 1) {
+            _output[_count] = NEWLINE[i];
+            _count += 1;
+        }
+        FORMAT.recordSince(start);
+        LETTERS.addIfEnabled(n);
+    }
+
+    /** Replace LINE[0 .. LEN-1] with its letters, in upper case, and
+     *  return their number.  As for Main.standardize, other characters
+     *  are removed.  Non-ASCII characters are simply removed;
+     *  convertLine first passes lines containing them through
+     *  Main.standardize, which finds their upper case. */
+    static int standardize(char[] line, int len) {
+        int n = 0;
+        for (int i = 0; i < len; i += 1) {
+            char c = line[i];
+            if ('a' <= c && c <= 'z') {
+                line[n] = (char) (c - ('a' - 'A'));
+                n += 1;
+            } else if ('A' <= c && c <= 'Z') {
+                line[n] = c;
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /** Ensure that my output buffer has room for N more bytes, writing
+     *  it out first if necessary. */
+    private void reserve(int n) throws IOException {
+        if (_count + n > _output.length) {
+            flush();
+            if (n > _output.length) {
+                _output = new byte[Math.max(n, 2 * _output.length)];
+            }
+        }
+    }
+
+    /** Write out my buffered output and flush my output stream. */
+    void flush() throws IOException {
+        long start = Metrics.now();
+        _out.write(_output, 0, _count);
+        _out.flush();
+        _count = 0;
+        WRITE.recordSince(start);
+    }
+
+    /** Nanoseconds taken to recognize and apply each configuration
+     *  line. */
+    static final Metrics.Histogram CONFIGURE =
+        Metrics.histogram("configure");
+
+    /** Nanoseconds taken to standardize each message line. */
+    static final Metrics.Histogram STANDARDIZE =
+        Metrics.histogram("standardize");
+
+    /** Nanoseconds taken by Machine.convert on each message line. */
+    static final Metrics.Histogram CONVERT = Metrics.histogram("convert");
+
+    /** Nanoseconds taken to format each converted line for output. */
+    static final Metrics.Histogram FORMAT = Metrics.histogram("format");
+
+    /** Nanoseconds taken by each write of output. */
+    static final Metrics.Histogram WRITE = Metrics.histogram("write");
+
+    /** Number of letters converted. */
+    static final Metrics.Counter LETTERS = Metrics.counter("letters");
+
+    /** Characters at or above this code are not ASCII. */
+    private static final char ASCII_LIMIT = 128;
+
+    /** The line terminator written after each message line. */
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes();
+
+    /** Parser of configuration lines. */
+    private final ConfigurationParser _parser = new ConfigurationParser();
+
+    /** The machine doing the conversion. */
+    private final Machine _machine;
+
+    /** Destination of my output. */
+    private final OutputStream _out;
+
+    /** Buffer into which input is read. */
+    private final char[] _input;
+
+    /** The current input line. */
+    private char[] _line;
+
+    /** Number of characters in _line. */
+    private int _length;
+
+    /** Output not yet written to _out. */
+    private byte[] _output;
+
+    /** Number of bytes in _output. */
+    private int _count;
+
+    /** True iff a configuration line has been seen. */
+    private boolean _configured;
+}
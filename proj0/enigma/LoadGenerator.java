@@ -0,0 +1,171 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/** A load generator for Server.  For each of several concurrency levels
+ *  C, it opens C connections, each of which sends REQUESTS messages of
+ *  LENGTH letters one at a time, waiting for each answer before sending
+ *  the next.  It then reports the throughput and the median and 99th
+ *  percentile latencies.  Connections use a few configurations in
+ *  common, so that the server can batch their requests.  The usage is
+ *
+ *      java enigma.LoadGenerator [ PORT [ REQUESTS [ LENGTH ] ] ]
+ *
+ *  where a PORT of 0 (the default) starts a server in this process.
+ *  @author Charles Lee
+ */
+class LoadGenerator {
+
+    /** Concurrency levels tried. */
+    static final int[] CONCURRENCY = { 1, 2, 4, 8, 16, 32, 64 };
+
+    /** Default number of requests per connection. */
+    static final int REQUESTS = 2000;
+
+    /** Default message length. */
+    static final int LENGTH = 100;
+
+    /** Configurations used by the connections. */
+    static final String[] CONFIGS = {
+        Configuration.SAMPLE, "* B BETA I II III AAAA",
+        "* C GAMMA VI VII VIII ZZZZ AM FI NV PS TU WZ",
+        "* B GAMMA V IV III QEVJ BBBB",
+    };
+
+    /** A generator sending to PORT of the loopback interface, with
+     *  REQUESTS messages of LENGTH letters per connection. */
+    LoadGenerator(int port, int requests, int length) {
+        _port = port;
+        _requests = requests;
+        _length = length;
+    }
+
+    /** Run with the options described above in ARGS. */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        int requests =
+            args.length > 1 ? Integer.parseInt(args[1]) : REQUESTS;
+        int length = args.length > 2 ? Integer.parseInt(args[2]) : LENGTH;
+        Server server = null;
+        Thread serving = null;
+        if (port == 0) {
+            server = new Server(0, ForkJoinPool.commonPool());
+            port = server.port();
+            Server s = server;
+            serving = new Thread(() -> {
+                try {
+                    s.run();
+                } catch (IOException excp) {
+                    System.err.printf("Server error: %s%n",
+                                      excp.getMessage());
+                }
+            });
+            serving.start();
+        }
+        LoadGenerator load = new LoadGenerator(port, requests, length);
+        System.out.printf("%-12s %14s %12s %12s%n", "connections",
+                          "requests/sec", "p50 us", "p99 us");
+        for (int c : CONCURRENCY) {
+            load.run(c);
+        }
+        if (server != null) {
+            server.close();
+            serving.join();
+            System.out.printf("(%d requests in %d batches)%n",
+                              server.requests(), server.batches());
+        }
+    }
+
+    /** Run and report one round with CONNECTIONS concurrent
+     *  connections. */
+    void run(int connections) throws Exception {
+        long[][] latencies = new long[connections][];
+        Thread[] clients = new Thread[connections];
+        Exception[] failure = new Exception[1];
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c += 1) {
+            int k = c;
+            clients[c] = new Thread(() -> {
+                try {
+                    latencies[k] = client(k);
+                } catch (IOException excp) {
+                    failure[0] = excp;
+                }
+            });
+            clients[c].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        long[] all = new long[connections * _requests];
+        for (int c = 0; c < connections; c += 1) {
+            System.arraycopy(latencies[c], 0, all, c * _requests, _requests);
+        }
+        Arrays.sort(all);
+        System.out.printf("%-12d %14.0f %12.1f %12.1f%n", connections,
+                          all.length * 1e9 / elapsed,
+                          percentile(all, 50) / 1e3,
+                          percentile(all, 99) / 1e3);
+    }
+
+    /** Run connection number K, returning the latency of each of its
+     *  requests in nanoseconds. */
+    private long[] client(int k) throws IOException {
+        Random random = new Random(k);
+        long[] result = new long[_requests];
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                        _port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(),
+                                      StandardCharsets.ISO_8859_1));
+            out.write((CONFIGS[k % CONFIGS.length] + "\n")
+                      .getBytes(StandardCharsets.ISO_8859_1));
+            byte[] msg = new byte[_length + 1];
+            msg[_length] = '\n';
+            for (int i = 0; i < _requests; i += 1) {
+                for (int j = 0; j < _length; j += 1) {
+                    msg[j] = (byte) Rotor.toLetter(
+                        random.nextInt(Rotor.ALPHABET_SIZE));
+                }
+                long start = System.nanoTime();
+                out.write(msg);
+                String answer = in.readLine();
+                result[i] = System.nanoTime() - start;
+                if (answer == null || answer.startsWith("?")) {
+                    throw new IOException("bad answer: " + answer);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the Pth percentile of the sorted values SORTED. */
+    static long percentile(long[] sorted, int p) {
+        int k = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, k)];
+    }
+
+    /** Port of the server. */
+    private final int _port;
+
+    /** Number of requests per connection. */
+    private final int _requests;
+
+    /** Length of each message. */
+    private final int _length;
+}
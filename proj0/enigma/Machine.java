@@ -1,63 +1,512 @@
 package enigma;
 
-/** Class that represents a complete enigma machine.
+import static enigma.Rotor.ALPHABET_SIZE;
+
+import java.util.Arrays;
+
+/** Class that represents a complete enigma machine.  All its rotors permute
+ *  the same alphabet.  For Alphabet.UPPER, the specialized default,
+ *  conversion follows a precomputed SteppingSchedule and whole-machine
+ *  permutations may be cached; for other alphabets, the rotors are stepped
+ *  and consulted one letter at a time.
  *  @author Charles Lee
  */
 class Machine {
 
+    /** Number of distinct settings of the four rotors to the right of
+     *  the reflector. */
+    static final int STATES =
+        ALPHABET_SIZE * ALPHABET_SIZE * ALPHABET_SIZE * ALPHABET_SIZE;
+
+    /** Number of bits of a snapshot holding each rotor's setting. */
+    static final int SETTING_BITS = 8;
+
+    /** Number of bits of a snapshot holding each rotor's catalog
+     *  index. */
+    static final int INDEX_BITS = 6;
+
     /** Rotor list from 1 (Reflector) to 5 from left to right. */
     private Rotor[] rotorlist = new Rotor[5];
 
+    /** A machine with no rotors. */
+    Machine() {
+    }
+
+    /** A machine with copies of the rotors of OTHER, at the same
+     *  settings.  The copy does not cache permutations. */
+    Machine(Machine other) {
+        _plugboard = other._plugboard;
+        _schedule = other._schedule;
+        _selection = other._selection;
+        for (int i = 0; i < rotorlist.length; i += 1) {
+            if (other.rotorlist[i] != null) {
+                rotorlist[i] = other.rotorlist[i].copy();
+            }
+        }
+    }
+
     /** Returns rotorlist rotors. */
     Rotor[] getRotors() {
         return rotorlist;
     }
 
     /** Set my rotors to (from left to right) ROTORS.  Initially, the rotor
-     *  settings are all 'A'. */
+     *  settings are all 'A'.  Cached permutations are kept only if
+     *  ROTORS have the same names as my current rotors.  Caching is
+     *  turned off if ROTORS' alphabet is not Alphabet.UPPER. */
     void replaceRotors(Rotor[] rotors) {
+        boolean standard = rotors[4].alphabet() == Alphabet.UPPER;
+        if (!standard) {
+            _composites = null;
+        } else if (_composites != null && !sameRotors(rotors)) {
+            discardComposites();
+        }
         rotorlist[0] = rotors[0];
         rotorlist[1] = rotors[1];
         rotorlist[2] = rotors[2];
         rotorlist[3] = rotors[3];
         rotorlist[4] = rotors[4];
+        rotorlist[4].setPlugboard(_plugboard);
+        _selection = alphabet().size() <= 1 << SETTING_BITS ? 0 : -1;
+        for (Rotor rotor : rotors) {
+            int k = rotor.getIndex();
+            if (_selection < 0 || k < 0 || k >= 1 << INDEX_BITS) {
+                _selection = -1;
+            } else {
+                _selection = _selection << INDEX_BITS | k;
+            }
+        }
+        _schedule = null;
+        if (standard && rotors[2].advances() && rotors[3].advances()
+            && rotors[4].advances()) {
+            _schedule = SteppingSchedule.of(rotors[3].getNotches(),
+                                            rotors[4].getNotches());
+        }
+    }
+
+    /** Give me ROTORS, as for replaceRotors, and the plugboard
+     *  permutation PLUGBOARD, as for setPlugboard.  Unlike calling
+     *  those in turn, this composes the plugboard only into the new
+     *  rightmost rotor. */
+    void replaceRotors(Rotor[] rotors, int[] plugboard) {
+        if (!Arrays.equals(plugboard, _plugboard)) {
+            _plugboard = plugboard == null ? null : plugboard.clone();
+            discardComposites();
+        }
+        replaceRotors(rotors);
+    }
+
+    /** Return the alphabet of my rotors. */
+    Alphabet alphabet() {
+        return rotorlist[4].alphabet();
+    }
+
+    /** Return the stepping schedule of my moving rotors, or null if one
+     *  of rotors 2-4 does not advance or their alphabet is not
+     *  Alphabet.UPPER. */
+    SteppingSchedule getSchedule() {
+        return _schedule;
+    }
+
+    /** Return the state of rotors 2-4 as defined by SteppingSchedule. */
+    int getState() {
+        return SteppingSchedule.state(rotorlist[2].getSetting(),
+                                      rotorlist[3].getSetting(),
+                                      rotorlist[4].getSetting());
+    }
+
+    /** Set rotors 2-4 to STATE, as defined by SteppingSchedule. */
+    void setState(int state) {
+        rotorlist[2].set(SteppingSchedule.left(state));
+        rotorlist[3].set(SteppingSchedule.middle(state));
+        rotorlist[4].set(SteppingSchedule.right(state));
+    }
+
+    /** Return true iff snapshot() can pack my state: that is, iff my
+     *  rotors' catalog indices fit in INDEX_BITS bits and their
+     *  settings in SETTING_BITS bits. */
+    boolean canSnapshot() {
+        return _selection >= 0;
+    }
+
+    /** Return my current state packed into a long: the catalog indices
+     *  of my rotors and the settings of rotors 1-4.  Ring settings and
+     *  the plugboard are not included.  Throws IllegalStateException
+     *  unless canSnapshot(). */
+    long snapshot() {
+        if (_selection < 0) {
+            throw new IllegalStateException("rotors cannot be snapshot");
+        }
+        long result = _selection;
+        for (int k = 1; k < rotorlist.length; k += 1) {
+            result = result << SETTING_BITS | rotorlist[k].getSetting();
+        }
+        return result;
+    }
+
+    /** Set rotors 1-4 to the settings recorded in SNAPSHOT, which must
+     *  have been taken from a machine with the same rotor selection as
+     *  mine (for example, this machine or a copy of it).  Throws
+     *  IllegalArgumentException otherwise. */
+    void restore(long snapshot) {
+        int settingsBits = SETTING_BITS * (rotorlist.length - 1);
+        if (snapshot >>> settingsBits != _selection || _selection < 0) {
+            throw new IllegalArgumentException("snapshot of other rotors");
+        }
+        for (int k = rotorlist.length - 1; k > 0; k -= 1) {
+            rotorlist[k].set((int) snapshot & ((1 << SETTING_BITS) - 1));
+            snapshot >>>= SETTING_BITS;
+        }
+    }
+
+    /** Set my plugboard permutation to PLUGBOARD (as returned by
+     *  Configuration.parsePlugboard; null for no plugboard).  The
+     *  plugboard is folded into the tables of my rightmost rotor, now
+     *  and whenever my rotors are replaced, so it costs nothing per
+     *  letter. */
+    void setPlugboard(int[] plugboard) {
+        if (Arrays.equals(plugboard, _plugboard)) {
+            return;
+        }
+        _plugboard = plugboard == null ? null : plugboard.clone();
+        if (rotorlist[4] != null) {
+            rotorlist[4].setPlugboard(_plugboard);
+        }
+        discardComposites();
+    }
+
+    /** Set the ring settings of rotors 1-4 to RINGS[0 .. 3]. */
+    void setRings(int[] rings) {
+        boolean changed = false;
+        for (int k = 1; k < rotorlist.length; k += 1) {
+            if (rotorlist[k].getRing() != rings[k - 1]) {
+                rotorlist[k].setRing(rings[k - 1]);
+                changed = true;
+            }
+        }
+        if (changed) {
+            discardComposites();
+        }
+    }
+
+    /** Empty my permutation cache, if I am caching and it is not
+     *  already empty.  Reconfiguring may change my rotors, rings and
+     *  plugboard in turn, and the cache is then replaced only once. */
+    private void discardComposites() {
+        if (_composites != null && _misses != _missesAtDiscard) {
+            _composites = new byte[STATES][];
+            _missesAtDiscard = _misses;
+        }
+    }
+
+    /** Return my plugboard permutation, or null if I have none. */
+    int[] getPlugboard() {
+        return _plugboard;
+    }
+
+    /** Return true iff ROTORS have the same names and ring settings, in
+     *  order, as my current rotors. */
+    private boolean sameRotors(Rotor[] rotors) {
+        for (int i = 0; i < rotorlist.length; i += 1) {
+            if (rotorlist[i] == null
+                || !rotorlist[i].getName().equals(rotors[i].getName())
+                || rotorlist[i].getRing() != rotors[i].getRing()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Turn caching of whole-machine permutations on iff ON.  While on,
+     *  the permutation for each setting of my rotors is computed once,
+     *  after which converting a letter at that setting is a single
+     *  lookup.  Turning caching on or off discards the cache and
+     *  resets the hit and miss counts.  Caching cannot be turned on
+     *  for rotors whose alphabet is not Alphabet.UPPER. */
+    void setCaching(boolean on) {
+        on &= rotorlist[4] == null || alphabet() == Alphabet.UPPER;
+        _composites = on ? new byte[STATES][] : null;
+        _hits = _misses = _missesAtDiscard = 0;
+    }
+
+    /** Return true iff I am caching whole-machine permutations. */
+    boolean isCaching() {
+        return _composites != null;
+    }
+
+    /** Return the number of letters converted with a cached
+     *  permutation since caching was turned on. */
+    long cacheHits() {
+        return _hits;
+    }
+
+    /** Return the number of permutations computed and cached since
+     *  caching was turned on. */
+    long cacheMisses() {
+        return _misses;
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        int count = 0;
-        int set;
-        char[] result = new char[msg.length()];
-        while (count < msg.length()) {
-            boolean[] notches = new boolean[4];
-            notches[3] = true;
-            int a = 1;
-            if (rotorlist[4].atNotch()) {
-                notches[2] = true;
-            }
-            if (rotorlist[3].atNotch()) {
-                notches[1] = notches[2] = true;
-            }
-            while (a <= 3) {
-                if (notches[a]) {
-                    rotorlist[a + 1].advance();
+        char[] result = msg.toCharArray();
+        convert(result, 0, result.length);
+        return new String(result);
+    }
+
+    /** Replace the symbols of my alphabet (upper-case letters, by
+     *  default) in BUF[START .. END-1] with their encoding/decoding,
+     *  updating the state of the rotors accordingly.  If I have a
+     *  stepping schedule and am not caching, the rotor settings are
+     *  followed through the schedule and the rotors' tables are indexed
+     *  directly, the rotors themselves being updated only at the
+     *  end. */
+    void convert(char[] buf, int start, int end) {
+        if (_composites != null || _schedule == null) {
+            Alphabet alphabet = alphabet();
+            for (int i = start; i < end; i += 1) {
+                buf[i] = alphabet.toSymbol(convert(alphabet.toIndex(buf[i])));
+            }
+            return;
+        }
+        int[] next = _schedule.nextTable();
+        int[] refl = rotorlist[0].forwardTable(),
+            f1 = rotorlist[1].forwardTable(),
+            b1 = rotorlist[1].backwardTable(),
+            f2 = rotorlist[2].forwardTable(),
+            b2 = rotorlist[2].backwardTable(),
+            f3 = rotorlist[3].forwardTable(),
+            b3 = rotorlist[3].backwardTable(),
+            f4 = rotorlist[4].forwardTable(),
+            b4 = rotorlist[4].backwardTable();
+        int s0 = rotorlist[0].getSetting() * ALPHABET_SIZE,
+            s1 = rotorlist[1].getSetting() * ALPHABET_SIZE;
+        int state = getState();
+        for (int i = start; i < end; i += 1) {
+            state = next[state];
+            int s2 = SteppingSchedule.left(state) * ALPHABET_SIZE,
+                s3 = SteppingSchedule.middle(state) * ALPHABET_SIZE,
+                s4 = SteppingSchedule.right(state) * ALPHABET_SIZE;
+            int p = Rotor.toIndex(buf[i]);
+            p = f4[s4 + p];
+            p = f3[s3 + p];
+            p = f2[s2 + p];
+            p = f1[s1 + p];
+            p = refl[s0 + p];
+            p = b1[s1 + p];
+            p = b2[s2 + p];
+            p = b3[s3 + p];
+            p = b4[s4 + p];
+            buf[i] = Rotor.toLetter(p);
+        }
+        setState(state);
+    }
+
+    /** Replace the bytes in BUF[START .. END-1] that are symbols of my
+     *  alphabet (taking each byte as the character with the same
+     *  unsigned code) with their encoding/decoding, updating the state
+     *  of the rotors accordingly.  Other bytes are left unchanged. */
+    void convert(byte[] buf, int start, int end) {
+        Alphabet alphabet = alphabet();
+        for (int i = start; i < end; i += 1) {
+            int p = alphabet.toIndex((char) (buf[i] & 0xff));
+            if (p >= 0) {
+                buf[i] = (byte) alphabet.toSymbol(convert(p));
+            }
+        }
+    }
+
+    /** Advance my rotors as if N letters had been converted, setting
+     *  SETTINGS[K][I] to the size of my alphabet times the setting of
+     *  rotor K (0 being the reflector) after the (I+1)st advance. */
+    void trace(int n, int[][] settings) {
+        if (_schedule != null) {
+            int s0 = rotorlist[0].getSetting() * ALPHABET_SIZE,
+                s1 = rotorlist[1].getSetting() * ALPHABET_SIZE;
+            int[] next = _schedule.nextTable();
+            int state = getState();
+            for (int i = 0; i < n; i += 1) {
+                state = next[state];
+                settings[0][i] = s0;
+                settings[1][i] = s1;
+                settings[2][i] =
+                    SteppingSchedule.left(state) * ALPHABET_SIZE;
+                settings[3][i] =
+                    SteppingSchedule.middle(state) * ALPHABET_SIZE;
+                settings[4][i] =
+                    SteppingSchedule.right(state) * ALPHABET_SIZE;
+            }
+            setState(state);
+            return;
+        }
+        int size = alphabet().size();
+        for (int i = 0; i < n; i += 1) {
+            step();
+            for (int k = 0; k < rotorlist.length; k += 1) {
+                settings[k][i] = rotorlist[k].getSetting() * size;
+            }
+        }
+    }
+
+    /** Advance my rotors as if N letters had been converted.  This
+     *  takes constant time if I have a stepping schedule. */
+    void advance(long n) {
+        if (_schedule != null) {
+            setState(_schedule.stateAt(getState(), n));
+            return;
+        }
+        for (long i = 0; i < n; i += 1) {
+            step();
+        }
+    }
+
+    /** Advance my rotors and return the encoding/decoding of P (an
+     *  index in my alphabet) at the new setting. */
+    int convert(int p) {
+        step();
+        if (_composites == null) {
+            return permute(p);
+        }
+        return composite()[p];
+    }
+
+    /** Return the whole-machine permutation at my current settings:
+     *  entry P is the encoding/decoding of P without advancing.  If I
+     *  am caching, the result comes from (or is added to) my cache;
+     *  otherwise it is freshly computed.  The result must not be
+     *  modified.  My alphabet must be Alphabet.UPPER. */
+    byte[] composite() {
+        if (_composites == null) {
+            return computeComposite();
+        }
+        int key = ((rotorlist[1].getSetting() * ALPHABET_SIZE
+                    + rotorlist[2].getSetting()) * ALPHABET_SIZE
+                   + rotorlist[3].getSetting()) * ALPHABET_SIZE
+            + rotorlist[4].getSetting();
+        byte[] perm = _composites[key];
+        if (perm == null) {
+            perm = computeComposite();
+            _composites[key] = perm;
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return perm;
+    }
+
+    /** Return a new array containing the whole-machine permutation at
+     *  my current settings. */
+    private byte[] computeComposite() {
+        byte[] perm = new byte[ALPHABET_SIZE];
+        for (int c = 0; c < ALPHABET_SIZE; c += 1) {
+            perm[c] = (byte) permute(c);
+        }
+        return perm;
+    }
+
+    /** Fill TABLE, which must have STATES * ALPHABET_SIZE entries, with
+     *  the whole-machine permutations at every setting of rotors 1-4:
+     *  entry K * ALPHABET_SIZE + P is composite()[P] when the settings
+     *  of rotors 1-4, read as a base-ALPHABET_SIZE number, are K.  My
+     *  settings are unchanged, and nothing is allocated.  My alphabet
+     *  must be Alphabet.UPPER. */
+    void fillComposites(byte[] table) {
+        int[] refl = rotorlist[0].forwardTable(),
+            f1 = rotorlist[1].forwardTable(),
+            b1 = rotorlist[1].backwardTable(),
+            f2 = rotorlist[2].forwardTable(),
+            b2 = rotorlist[2].backwardTable(),
+            f3 = rotorlist[3].forwardTable(),
+            b3 = rotorlist[3].backwardTable(),
+            f4 = rotorlist[4].forwardTable(),
+            b4 = rotorlist[4].backwardTable();
+        int s0 = rotorlist[0].getSetting() * ALPHABET_SIZE;
+        int end = ALPHABET_SIZE * ALPHABET_SIZE;
+        int k = 0;
+        for (int s1 = 0; s1 < end; s1 += ALPHABET_SIZE) {
+            for (int s2 = 0; s2 < end; s2 += ALPHABET_SIZE) {
+                for (int s3 = 0; s3 < end; s3 += ALPHABET_SIZE) {
+                    for (int s4 = 0; s4 < end; s4 += ALPHABET_SIZE) {
+                        for (int c = 0; c < ALPHABET_SIZE; c += 1) {
+                            int p = f4[s4 + c];
+                            p = f3[s3 + p];
+                            p = f2[s2 + p];
+                            p = f1[s1 + p];
+                            p = refl[s0 + p];
+                            p = b1[s1 + p];
+                            p = b2[s2 + p];
+                            p = b3[s3 + p];
+                            table[k] = (byte) b4[s4 + p];
+                            k += 1;
+                        }
+                    }
                 }
-                a++;
-            }
-            set = rotorlist[4].convertForward(
-                    Rotor.toIndex(msg.charAt(count)));
-            set = rotorlist[3].convertForward(set);
-            set = rotorlist[2].convertForward(set);
-            set = rotorlist[1].convertForward(set);
-            set = rotorlist[0].convertForward(set);
-            set = rotorlist[1].convertBackward(set);
-            set = rotorlist[2].convertBackward(set);
-            set = rotorlist[3].convertBackward(set);
-            set = rotorlist[4].convertBackward(set);
-            result[count] = Rotor.toLetter(set);
-            count++;
+            }
         }
-        return new String(result);
     }
+
+    /** Advance my rotors as for one letter and return composite() at
+     *  the new settings. */
+    byte[] stepComposite() {
+        step();
+        return composite();
+    }
+
+    /** Advance my rotors by one position, as for one letter.  The
+     *  rotor left of a rotor at its notch advances along with it. */
+    private void step() {
+        if (_schedule != null) {
+            setState(_schedule.next(getState()));
+            return;
+        }
+        boolean middle = rotorlist[3].atNotch();
+        if (middle) {
+            rotorlist[2].advance();
+        }
+        if (middle || rotorlist[4].atNotch()) {
+            rotorlist[3].advance();
+        }
+        rotorlist[4].advance();
+    }
+
+    /** Return the conversion of P through all my rotors at their
+     *  current settings, without advancing them. */
+    private int permute(int p) {
+        int set;
+        set = rotorlist[4].convertForward(p);
+        set = rotorlist[3].convertForward(set);
+        set = rotorlist[2].convertForward(set);
+        set = rotorlist[1].convertForward(set);
+        set = rotorlist[0].convertForward(set);
+        set = rotorlist[1].convertBackward(set);
+        set = rotorlist[2].convertBackward(set);
+        set = rotorlist[3].convertBackward(set);
+        set = rotorlist[4].convertBackward(set);
+        return set;
+    }
+
+    /** Catalog indices of my rotors, INDEX_BITS bits each with the
+     *  reflector's first, or -1 if they do not fit or my alphabet has
+     *  more than 1 << SETTING_BITS symbols. */
+    private long _selection = -1;
+
+    /** Stepping schedule of rotors 2-4, or null. */
+    private SteppingSchedule _schedule;
+
+    /** Plugboard permutation, or null. */
+    private int[] _plugboard;
+
+    /** Cached whole-machine permutations, indexed by the settings of
+     *  rotors 1-4 read as a base-ALPHABET_SIZE number.  Null when
+     *  caching is off. */
+    private byte[][] _composites;
+
+    /** Number of conversions answered from _composites. */
+    private long _hits;
+
+    /** Number of permutations added to _composites. */
+    private long _misses;
+
+    /** Value of _misses when _composites was last emptied. */
+    private long _missesAtDiscard;
 }
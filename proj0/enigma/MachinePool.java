@@ -0,0 +1,50 @@
+package enigma;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A thread-safe pool of idle machines, grouped by rotor selection, so
+ *  that converting a message with a previously used selection only
+ *  resets rotor settings instead of building new rotors.
+ *  @author Charles Lee
+ */
+class MachinePool {
+
+    /** Return a machine configured as CONFIG describes, at CONFIG's
+     *  initial settings.  The machine belongs to the caller until given
+     *  back with release. */
+    Machine acquire(Configuration config) {
+        Machine m = idle(config).poll();
+        if (m == null) {
+            _created.increment();
+            return config.machine();
+        }
+        config.reset(m);
+        return m;
+    }
+
+    /** Return M, acquired with CONFIG, to the pool. */
+    void release(Configuration config, Machine m) {
+        idle(config).add(m);
+    }
+
+    /** Return the number of machines this pool has built. */
+    long created() {
+        return _created.sum();
+    }
+
+    /** Return the queue of idle machines for CONFIG's rotors. */
+    private Queue<Machine> idle(Configuration config) {
+        return _idle.computeIfAbsent(config.key(),
+                                     k -> new ConcurrentLinkedQueue<>());
+    }
+
+    /** Idle machines, indexed by Configuration.key(). */
+    private final ConcurrentHashMap<String, Queue<Machine>> _idle =
+        new ConcurrentHashMap<>();
+
+    /** Number of machines built. */
+    private final LongAdder _created = new LongAdder();
+}
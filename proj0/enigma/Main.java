@@ -1,8 +1,14 @@
 package enigma;
 
 import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /** Enigma simulator.
  *  @author Charles Lee
@@ -12,44 +18,263 @@ public final class Main {
     /** Process a sequence of encryptions and decryptions, as
      *  specified in the input from the standard input.  Print the
      *  results on the standard output. Exits normally if there are
-     *  no errors in the input; otherwise with code 1. */
-    public static void main(String[] unused) {
+     *  no errors in the input; otherwise with code 1.  ARGS may
+     *  contain these options, and an option without its argument is
+     *  a usage error, also exiting with code 1:
+     *
+     *    --rotors FILE  Add the rotor catalog in FILE (see RotorCatalog)
+     *                   to the standard one before reading any input.
+     *    --cache        Cache whole-machine permutations across
+     *                   messages, reporting hits and misses on the
+     *                   standard error.
+     *    --stream       Convert the input in fixed-size chunks with a
+     *                   StreamConverter rather than line by line.
+     *    --parallel     Convert long message lines in concurrent chunks
+     *                   with a ParallelConverter.
+     *    --batch        Read the whole input, then convert the messages
+     *                   under each configuration line concurrently with
+     *                   a BatchConverter, reporting its statistics on
+     *                   the standard error.
+     *    --map IN OUT   Convert the file IN into the file OUT through
+     *                   memory mappings with a MappedConverter, rather
+     *                   than from the standard input.
+     *    --serve PORT   Instead of reading input, serve conversions on
+     *                   PORT of the loopback interface with a Server
+     *                   until killed.
+     *    --metrics      Record the time taken by each stage of
+     *                   processing (see Metrics), and print a summary
+     *                   on the standard error at the end.  Since a
+     *                   server never ends, this may not be combined
+     *                   with --serve.
+     *    --metrics-out FILE
+     *                   Record metrics as for --metrics, but write them
+     *                   to FILE in the format of Metrics.Export, also
+     *                   not with --serve. */
+    public static void main(String[] args) {
         Machine M;
         BufferedReader input =
             new BufferedReader(new InputStreamReader(System.in));
 
-        M = null;
+        M = new Machine();
+        boolean caching = false;
+        boolean streaming = false;
+        boolean batch = false;
+        ParallelConverter parallel = null;
+        String rotorFile = null;
+        String mapIn = null, mapOut = null;
+        String metricsFile = null;
+        int port = -1;
+        for (int i = 0; i < args.length; i += 1) {
+            String arg = args[i];
+            if (arg.equals("--rotors")) {
+                i += 1;
+                rotorFile = argument(args, i);
+            } else if (arg.equals("--cache")) {
+                caching = true;
+            } else if (arg.equals("--stream")) {
+                streaming = true;
+            } else if (arg.equals("--batch")) {
+                batch = true;
+            } else if (arg.equals("--parallel")) {
+                parallel = new ParallelConverter();
+            } else if (arg.equals("--serve")) {
+                i += 1;
+                try {
+                    port = Integer.parseInt(argument(args, i));
+                } catch (NumberFormatException excp) {
+                    usage();
+                }
+            } else if (arg.equals("--map")) {
+                mapIn = argument(args, i + 1);
+                mapOut = argument(args, i + 2);
+                i += 2;
+            } else if (arg.equals("--metrics")) {
+                Metrics.setEnabled(true);
+            } else if (arg.equals("--metrics-out")) {
+                i += 1;
+                metricsFile = argument(args, i);
+                Metrics.setEnabled(true);
+            }
+        }
+        if (port >= 0 && Metrics.enabled()) {
+            usage();
+        }
+        M.setCaching(caching);
+
+        try {
+            if (rotorFile != null) {
+                try (FileReader catalog = new FileReader(rotorFile)) {
+                    RotorCatalog.setCurrent(
+                        RotorCatalog.read(RotorCatalog.STANDARD, catalog));
+                }
+            }
+            if (port >= 0) {
+                try (Server server =
+                     new Server(port, ForkJoinPool.commonPool())) {
+                    server.run();
+                }
+            } else if (mapIn != null) {
+                MappedConverter.convert(M, Paths.get(mapIn),
+                                        Paths.get(mapOut));
+            } else if (streaming) {
+                new StreamConverter(M, System.out).convert(System.in);
+            } else if (batch) {
+                processBatch(input);
+            } else {
+                processLines(M, input, parallel);
+            }
+            if (caching) {
+                System.err.printf("Cache: %d hits, %d misses%n",
+                                  M.cacheHits(), M.cacheMisses());
+            }
+            if (metricsFile != null) {
+                try (FileWriter out = new FileWriter(metricsFile)) {
+                    Metrics.report(new Metrics.Export(out));
+                }
+            } else if (Metrics.enabled()) {
+                System.out.flush();
+                Metrics.report(new Metrics.Summary(System.err));
+            }
+        } catch (IOException excp) {
+            System.err.printf("Input error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Return ARGS[I], the argument of an option, first printing a usage
+     *  message and exiting with code 1 if there is none. */
+    private static String argument(String[] args, int i) {
+        if (i >= args.length) {
+            usage();
+        }
+        return args[i];
+    }
+
+    /** Print a usage message on the standard error and exit with code
+     *  1. */
+    private static void usage() {
+        System.err.println("Usage: java enigma.Main [--rotors FILE] [--cache]"
+                           + " [--stream] [--parallel] [--batch]");
+        System.err.println("           [--map IN OUT] [--serve PORT]"
+                           + " [--metrics] [--metrics-out FILE]");
+        System.exit(1);
+    }
 
+    /** Process the lines of INPUT one at a time using M, printing the
+     *  results on the standard output.  Messages are converted by
+     *  PARALLEL, unless it is null, in which case they are converted
+     *  without allocation by a LineConverter. */
+    private static void processLines(Machine M, BufferedReader input,
+                                     ParallelConverter parallel)
+        throws IOException {
+        if (parallel == null) {
+            new LineConverter(M, System.out).convert(input);
+            return;
+        }
         boolean configured = false;
 
-        try {
-            while (true) {
-                String line = input.readLine();
+        while (true) {
+            String line = input.readLine();
+            if (line == null) {
+                break;
+            }
+            long start = Metrics.now();
+            if (isConfigurationLine(line)) {
+                configured = true;
+                configure(M, line);
+                LineConverter.CONFIGURE.recordSince(start);
+            } else {
+                if (!configured) {
+                    throw new IOException();
+                }
+                String msg = standardize(line);
+                LineConverter.STANDARDIZE.recordSince(start);
+                start = Metrics.now();
+                msg = parallel.convert(M, msg);
+                LineConverter.CONVERT.recordSince(start);
+                start = Metrics.now();
+                printMessageLine(msg);
+                LineConverter.WRITE.recordSince(start);
+                LineConverter.LETTERS.addIfEnabled(msg.length());
+            }
+        }
+    }
+
+    /** Process all of INPUT with a BatchConverter, printing the results
+     *  on the standard output and the converter's report on the
+     *  standard error.  The conversion of all the messages is recorded
+     *  in Metrics as a single value. */
+    private static void processBatch(BufferedReader input)
+        throws IOException {
+        ArrayList<BatchConverter.Message> msgs = new ArrayList<>();
+        ArrayList<List<Integer>> lineLengths = new ArrayList<>();
+        Configuration config = null;
+        StringBuilder text = new StringBuilder();
+        while (true) {
+            String line = input.readLine();
+            long start = Metrics.now();
+            if (line == null || isConfigurationLine(line)) {
+                if (config != null) {
+                    msgs.add(new BatchConverter.Message(config,
+                                                        text.toString()));
+                    text.setLength(0);
+                }
                 if (line == null) {
                     break;
                 }
-                if (isConfigurationLine(line)) {
-                    M = new Machine();
-                    configured = true;
-                    configure(M, line);
-                } else {
-                    if (!configured) {
-                        throw new IOException();
-                    }
-                    printMessageLine(M.convert(standardize(line)));
+                config = Configuration.parse(line);
+                lineLengths.add(new ArrayList<>());
+                LineConverter.CONFIGURE.recordSince(start);
+            } else {
+                if (config == null) {
+                    throw new IOException();
                 }
+                String msg = standardize(line);
+                text.append(msg);
+                lineLengths.get(lineLengths.size() - 1).add(msg.length());
+                LineConverter.STANDARDIZE.recordSince(start);
             }
-        } catch (IOException excp) {
-            System.err.printf("Input error: %s%n", excp.getMessage());
+        }
+
+        BatchConverter converter = new BatchConverter();
+        long start = Metrics.now();
+        List<String> results = converter.convertAll(msgs);
+        LineConverter.CONVERT.recordSince(start);
+        for (int i = 0; i < results.size(); i += 1) {
+            int pos = 0;
+            for (int len : lineLengths.get(i)) {
+                start = Metrics.now();
+                printMessageLine(results.get(i).substring(pos, pos + len));
+                LineConverter.WRITE.recordSince(start);
+                pos += len;
+            }
+            LineConverter.LETTERS.addIfEnabled(results.get(i).length());
+        }
+        System.err.println(converter.report());
+    }
+
+    /** Return true iff LINE is an Enigma configuration line.  The
+     *  line may end with ring settings and then plugboard pairs.  Rotor
+     *  names are looked up in RotorCatalog.current().  Exits with code
+     *  1 if LINE starts as a configuration line but is not a valid
+     *  one. */
+    static boolean isConfigurationLine(String line) {
+        try {
+            return checkConfigurationLine(line);
+        } catch (IllegalArgumentException excp) {
             System.exit(1);
+            return false;
         }
     }
 
-    /** Return true iff LINE is an Enigma configuration line. */
-    private static boolean isConfigurationLine(String line) {
-        String rotors = "I II III IV V VI VII VIII";
+    /** Return true iff LINE is a valid configuration line, as for
+     *  isConfigurationLine, and false if it is not a configuration
+     *  line at all.  Throws IllegalArgumentException if it starts as
+     *  one but is not valid. */
+    static boolean checkConfigurationLine(String line) {
+        RotorCatalog catalog = RotorCatalog.current();
         String[] line2 = line.split(" ");
-        if (line2.length != 7 || !line2[0].equals("*")) {
+        if (line2.length < 7 || !line2[0].equals("*")) {
             return false;
         }
         String one = line2[3];
@@ -60,30 +285,34 @@ public final class Main {
         int set3 = parsePosition(line2[6].charAt(2));
         int set4 = parsePosition(line2[6].charAt(3));
 
-        if (!line2[1].equals("B") && !line2[1].equals("C")) {
-            System.exit(1);
+        if (!catalog.isA(line2[1], RotorCatalog.Kind.REFLECTOR)) {
+            throw new IllegalArgumentException("bad reflector");
         }
 
-        if (!line2[2].equals("BETA") && !line2[2].equals("GAMMA")) {
-            System.exit(1);
+        if (!catalog.isA(line2[2], RotorCatalog.Kind.FIXED)) {
+            throw new IllegalArgumentException("bad fixed rotor");
         }
 
-        one = line2[3];
-        two = line2[4];
-        three = line2[5];
-        if (!rotors.contains(one) || !rotors.contains(two)
-            || !rotors.contains(three) || rotors.equals(two)
-            || rotors.equals(three) || rotors.equals(three)) {
-            System.exit(1);
+        if (!catalog.isA(one, RotorCatalog.Kind.ROTOR)
+            || !catalog.isA(two, RotorCatalog.Kind.ROTOR)
+            || !catalog.isA(three, RotorCatalog.Kind.ROTOR)) {
+            throw new IllegalArgumentException("bad rotor");
         }
 
         if (line2[6].length() != 4) {
-            System.exit(1);
+            throw new IllegalArgumentException("bad rotor settings");
         }
         if (set == -1 || set2 == -1
                 || set3 == -1 || set4 == -1) {
-            System.exit(1);
+            throw new IllegalArgumentException("bad rotor settings");
+        }
+        int pairs = 7;
+        if (line2.length > pairs
+            && line2[pairs].length() == line2[6].length()) {
+            Configuration.parseSettings(line2[pairs]);
+            pairs += 1;
         }
+        Configuration.parsePlugboard(line2, pairs);
 
         return true;
     }
@@ -128,46 +357,68 @@ public final class Main {
 
     /** Configure M according to the specification given on CONFIG,
      *  which must have the format specified in the assignment. */
-    private static void configure(Machine M, String config) {
-        String[] line = config.split("\\s+");
-        if (line.length != 7) {
+    static void configure(Machine M, String config) {
+        try {
+            Configuration.parse(config).configure(M);
+        } catch (IllegalArgumentException excp) {
             System.exit(1);
         }
-
-        Reflector ref = new Reflector(line[1], 0);
-        FixedRotor fix = new FixedRotor(line[2], (Rotor.toIndex(
-            line[6].charAt(0))));
-        Rotor three = new Rotor(line[3], Rotor.toIndex(line[6].charAt(1)));
-        Rotor four = new Rotor(line[4], Rotor.toIndex(line[6].charAt(2)));
-        Rotor five = new Rotor(line[5], Rotor.toIndex(line[6].charAt(3)));
-        Rotor[] rotors = {ref, fix, three, four, five};
-        M.replaceRotors(rotors);
-
     }
 
     /** Return the result of converting LINE to all upper case,
-     *  removing all blanks and tabs.  It is an error if LINE contains
-     *  characters other than letters and blanks. */
-    private static String standardize(String line) {
-        String delim = "[]+";
-        String capital = line.toUpperCase();
-        String line2 = capital.replaceAll("\\W", "");
-        return line2;
-
+     *  removing all characters other than the letters A-Z (including
+     *  blanks, punctuation and digits). */
+    static String standardize(String line) {
+        char[] result = new char[line.length()];
+        int n = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (c >= ASCII_LIMIT) {
+                return line.toUpperCase().replaceAll("[^A-Z]", "");
+            } else if ('a' <= c && c <= 'z') {
+                result[n] = (char) (c - ('a' - 'A'));
+                n += 1;
+            } else if ('A' <= c && c <= 'Z') {
+                result[n] = c;
+                n += 1;
+            }
+        }
+        return new String(result, 0, n);
     }
 
+    /** Characters at or above this code may change in length or become
+     *  ASCII when converted to upper case, so standardize treats lines
+     *  containing them with the general (slow) method. */
+    private static final char ASCII_LIMIT = 128;
+
     /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
+     *  have fewer letters), formatting it in a reusable buffer. */
     private static void printMessageLine(String msg) {
-        int count = 0;
-        for (int i = 0; i < msg.length(); i++) {
-            System.out.print(msg.charAt(i));
-            count++;
-            if (count % 5 == 0 && i != msg.length() - 1) {
-                System.out.print(" ");
+        int group = StreamConverter.GROUP_SIZE;
+        int size = msg.length() + msg.length() / group + NEWLINE.length;
+        if (_printBuffer.length < size) {
+            _printBuffer = new byte[Math.max(size, 2 * _printBuffer.length)];
+        }
+        int k = 0;
+        for (int i = 0; i < msg.length(); i += 1) {
+            if (i > 0 && i % group == 0) {
+                _printBuffer[k] = ' ';
+                k += 1;
             }
+            _printBuffer[k] = (byte) msg.charAt(i);
+            k += 1;
         }
-        System.out.println();
+        for (int i = 0; i < NEWLINE.length; i += 1) {
+            _printBuffer[k] = NEWLINE[i];
+            k += 1;
+        }
+        System.out.write(_printBuffer, 0, k);
     }
+
+    /** The line terminator printed after each message line. */
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes();
+
+    /** Buffer in which printMessageLine formats its output. */
+    private static byte[] _printBuffer = new byte[LineConverter.BUFFER_SIZE];
 }
 
@@ -0,0 +1,116 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** Converts enigma input in one file into output in another, accessing
+ *  both through memory mappings rather than through streams, so that
+ *  no characters are decoded or encoded and the files may be larger
+ *  than the heap.  Each file is mapped a window at a time, and the
+ *  input is processed by a StreamConverter directly from the mapped
+ *  bytes.
+ *  @author Charles Lee
+ */
+class MappedConverter {
+
+    /** Size in bytes of the windows in which files are mapped. */
+    static final long WINDOW = 1L << 28;
+
+    /** Convert the contents of the file IN with M, writing the result to
+     *  the file OUT, which is created or replaced. */
+    static void convert(Machine m, Path in, Path out) throws IOException {
+        convert(m, in, out, WINDOW);
+    }
+
+    /** Convert the contents of the file IN with M, writing the result to
+     *  the file OUT, which is created or replaced, and mapping both files
+     *  in windows of SIZE bytes. */
+    static void convert(Machine m, Path in, Path out, long size)
+        throws IOException {
+        try (FileChannel input = FileChannel.open(in);
+             MappedOutput output = new MappedOutput(out, size)) {
+            StreamConverter converter = new StreamConverter(m, output);
+            long end = input.size();
+            for (long pos = 0; pos < end; pos += size) {
+                converter.process(
+                    input.map(FileChannel.MapMode.READ_ONLY, pos,
+                              Math.min(size, end - pos)));
+            }
+            converter.finish();
+        }
+    }
+
+    /** An output stream that writes into a file through a series of
+     *  memory-mapped windows, and trims the file to the number of bytes
+     *  written when closed. */
+    static class MappedOutput extends OutputStream {
+
+        /** A stream writing to the file at PATH, which is created or
+         *  replaced, through windows of SIZE bytes. */
+        MappedOutput(Path path, long size) throws IOException {
+            _windowSize = size;
+            _channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                                        StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            window(1).put((byte) b);
+            _size += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                MappedByteBuffer window = window(len);
+                int n = Math.min(len, window.remaining());
+                window.put(b, off, n);
+                off += n;
+                len -= n;
+                _size += n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (_window != null) {
+                _window.force();
+                _window = null;
+            }
+            _channel.truncate(_size);
+            _channel.close();
+        }
+
+        /** Return the current window, first mapping the next one if the
+         *  current window has no room.  LEN is the number of bytes
+         *  wanted (only one is guaranteed). */
+        private MappedByteBuffer window(int len) throws IOException {
+            if (_window == null || !_window.hasRemaining()) {
+                if (_window != null) {
+                    _window.force();
+                }
+                _window = _channel.map(FileChannel.MapMode.READ_WRITE,
+                                       _size, _windowSize);
+            }
+            return _window;
+        }
+
+        /** The file being written. */
+        private final FileChannel _channel;
+
+        /** Size in bytes of my windows. */
+        private final long _windowSize;
+
+        /** The window into which bytes are currently written. */
+        private MappedByteBuffer _window;
+
+        /** Number of bytes written. */
+        private long _size;
+    }
+}
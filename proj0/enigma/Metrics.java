@@ -0,0 +1,310 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counters and latency histograms for the stages of enigma.Main.  All
+ *  are registered by name in one process-wide table, and are reported
+ *  to a Sink on request.  Metrics are disabled unless setEnabled is
+ *  called; while disabled, now() returns 0 without reading the clock
+ *  and Histogram.recordSince(0) does nothing, so that instrumented code
+ *  of the form
+ *
+ *      long start = Metrics.now();
+ *      ...
+ *      STAGE.recordSince(start);
+ *
+ *  costs one test of a static field per stage.  Counters and histograms
+ *  are striped, and may be updated by many threads at once.
+ *  @author Charles Lee
+ */
+final class Metrics {
+
+    /** Not instantiable. */
+    private Metrics() {
+    }
+
+    /** Receives the values of metrics from report. */
+    interface Sink {
+        /** Receive the counter named NAME, whose value is VALUE. */
+        void counter(String name, long value) throws IOException;
+
+        /** Receive the histogram named NAME. */
+        void histogram(String name, Histogram histogram)
+            throws IOException;
+    }
+
+    /** A count that may be incremented by many threads. */
+    static final class Counter {
+        /** Add N to my count. */
+        void add(long n) {
+            _count.add(n);
+        }
+
+        /** Add N to my count if metrics are enabled. */
+        void addIfEnabled(long n) {
+            if (enabled()) {
+                _count.add(n);
+            }
+        }
+
+        /** Add 1 to my count. */
+        void increment() {
+            _count.increment();
+        }
+
+        /** Return my count. */
+        long sum() {
+            return _count.sum();
+        }
+
+        /** My count. */
+        private final LongAdder _count = new LongAdder();
+    }
+
+    /** A histogram of non-negative values (typically nanoseconds) with
+     *  buckets of logarithmically increasing width, as in HDR
+     *  histograms: the values below 2^SUB_BITS are counted exactly,
+     *  and each larger octave is divided into 2^(SUB_BITS-1) buckets,
+     *  so that percentiles are reported to within about 6%.  Each
+     *  recording thread updates one of several stripes of counts. */
+    static final class Histogram {
+
+        /** Number of bits of a value that select its bucket. */
+        static final int SUB_BITS = 5;
+
+        /** Number of buckets. */
+        static final int BUCKETS =
+            (Long.SIZE - SUB_BITS + 1) << (SUB_BITS - 1);
+
+        /** A histogram with no values. */
+        Histogram() {
+            _stripes = new AtomicLongArray[STRIPES];
+            for (int k = 0; k < STRIPES; k += 1) {
+                _stripes[k] = new AtomicLongArray(BUCKETS);
+            }
+        }
+
+        /** Record VALUE, taking negative values as 0. */
+        void record(long value) {
+            value = Math.max(0, value);
+            int stripe =
+                (int) Thread.currentThread().getId() & (STRIPES - 1);
+            _stripes[stripe].incrementAndGet(bucket(value));
+            _sum.add(value);
+            _max.accumulate(value);
+        }
+
+        /** Record the time elapsed since START, a value returned by
+         *  Metrics.now(), if metrics are enabled.  Nothing is recorded
+         *  if they were not when START was taken, which is then 0. */
+        void recordSince(long start) {
+            if (enabled() && start != 0) {
+                record(System.nanoTime() - start);
+            }
+        }
+
+        /** Return the number of values recorded. */
+        long count() {
+            long result = 0;
+            for (long n : counts()) {
+                result += n;
+            }
+            return result;
+        }
+
+        /** Return the mean of the values recorded, or 0 if none. */
+        double mean() {
+            long n = count();
+            return n == 0 ? 0.0 : (double) _sum.sum() / n;
+        }
+
+        /** Return the largest value recorded, or 0 if none. */
+        long max() {
+            return _max.get();
+        }
+
+        /** Return an upper bound, accurate to the width of its bucket,
+         *  on the Pth percentile of the values recorded, or 0 if
+         *  none. */
+        long percentile(double p) {
+            long[] counts = counts();
+            long total = 0;
+            for (long n : counts) {
+                total += n;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i += 1) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max());
+                }
+            }
+            return 0;
+        }
+
+        /** Return the bucket counting VALUE. */
+        static int bucket(long value) {
+            int shift = Math.max(0, Long.SIZE - SUB_BITS
+                                 - Long.numberOfLeadingZeros(value));
+            return (shift << (SUB_BITS - 1)) + (int) (value >>> shift);
+        }
+
+        /** Return the largest value counted by bucket I. */
+        static long upperBound(int i) {
+            if (i < 1 << SUB_BITS) {
+                return i;
+            }
+            int shift = (i >>> (SUB_BITS - 1)) - 1;
+            long top = i - ((long) shift << (SUB_BITS - 1));
+            return ((top + 1) << shift) - 1;
+        }
+
+        /** Return the counts of my buckets, summed over all stripes. */
+        private long[] counts() {
+            long[] result = new long[BUCKETS];
+            for (AtomicLongArray stripe : _stripes) {
+                for (int i = 0; i < BUCKETS; i += 1) {
+                    result[i] += stripe.get(i);
+                }
+            }
+            return result;
+        }
+
+        /** Counts of values in each bucket, one array per stripe. */
+        private final AtomicLongArray[] _stripes;
+        /** Sum of the values recorded. */
+        private final LongAdder _sum = new LongAdder();
+        /** Largest value recorded. */
+        private final LongAccumulator _max =
+            new LongAccumulator(Math::max, 0);
+    }
+
+    /** A Sink that prints a table of metrics, one per line, with the
+     *  count, mean, median, 99th percentile and maximum of each
+     *  histogram in microseconds. */
+    static final class Summary implements Sink {
+        /** A summary printed on OUT. */
+        Summary(PrintStream out) {
+            _out = out;
+            _out.printf("%-24s %12s %10s %10s %10s %10s%n", "metric",
+                        "count", "mean us", "p50 us", "p99 us", "max us");
+        }
+
+        @Override
+        public void counter(String name, long value) {
+            _out.printf("%-24s %12d%n", name, value);
+        }
+
+        @Override
+        public void histogram(String name, Histogram h) {
+            _out.printf("%-24s %12d %10.2f %10.2f %10.2f %10.2f%n", name,
+                        h.count(), h.mean() / 1e3, h.percentile(50) / 1e3,
+                        h.percentile(99) / 1e3, h.max() / 1e3);
+        }
+
+        /** Destination of the table. */
+        private final PrintStream _out;
+    }
+
+    /** A Sink that writes metrics to a file, one per line, as
+     *  tab-separated fields: the name, the kind ("counter" or
+     *  "histogram"), and either the counter's value or the histogram's
+     *  count, mean, median, 99th percentile and maximum, in the units
+     *  recorded. */
+    static final class Export implements Sink {
+        /** An export written to OUT. */
+        Export(Writer out) {
+            _out = out;
+        }
+
+        @Override
+        public void counter(String name, long value) throws IOException {
+            _out.write(String.format("%s\tcounter\t%d%n", name, value));
+        }
+
+        @Override
+        public void histogram(String name, Histogram h) throws IOException {
+            _out.write(String.format("%s\thistogram\t%d\t%.1f\t%d\t%d\t%d%n",
+                                     name, h.count(), h.mean(),
+                                     h.percentile(50), h.percentile(99),
+                                     h.max()));
+        }
+
+        /** Destination of the export. */
+        private final Writer _out;
+    }
+
+    /** Return true iff metrics are being recorded. */
+    static boolean enabled() {
+        return _enabled;
+    }
+
+    /** Start or stop (if ON is false) recording metrics. */
+    static void setEnabled(boolean on) {
+        _enabled = on;
+    }
+
+    /** Return System.nanoTime() if metrics are enabled, and otherwise
+     *  0. */
+    static long now() {
+        return _enabled ? System.nanoTime() : 0;
+    }
+
+    /** Return the counter named NAME, creating it if needed. */
+    static synchronized Counter counter(String name) {
+        Object metric = _metrics.computeIfAbsent(name, k -> new Counter());
+        if (!(metric instanceof Counter)) {
+            throw new IllegalArgumentException(name + " is not a counter");
+        }
+        return (Counter) metric;
+    }
+
+    /** Return the histogram named NAME, creating it if needed. */
+    static synchronized Histogram histogram(String name) {
+        Object metric = _metrics.computeIfAbsent(name, k -> new Histogram());
+        if (!(metric instanceof Histogram)) {
+            throw new IllegalArgumentException(name + " is not a histogram");
+        }
+        return (Histogram) metric;
+    }
+
+    /** Send all metrics that have recorded anything to SINK, in the
+     *  order in which they were created. */
+    static void report(Sink sink) throws IOException {
+        ArrayList<Map.Entry<String, Object>> metrics;
+        synchronized (Metrics.class) {
+            metrics = new ArrayList<>(_metrics.entrySet());
+        }
+        for (Map.Entry<String, Object> entry : metrics) {
+            Object metric = entry.getValue();
+            if (metric instanceof Counter) {
+                if (((Counter) metric).sum() != 0) {
+                    sink.counter(entry.getKey(), ((Counter) metric).sum());
+                }
+            } else if (((Histogram) metric).count() != 0) {
+                sink.histogram(entry.getKey(), (Histogram) metric);
+            }
+        }
+    }
+
+    /** Number of stripes in each histogram: a power of two at least
+     *  the number of processors. */
+    private static final int STRIPES = Integer.highestOneBit(
+        2 * Runtime.getRuntime().availableProcessors() - 1);
+
+    /** All metrics, by name. */
+    private static final LinkedHashMap<String, Object> _metrics =
+        new LinkedHashMap<>();
+
+    /** True iff metrics are being recorded. */
+    private static volatile boolean _enabled;
+}
@@ -0,0 +1,183 @@
+package enigma;
+
+import static enigma.Rotor.ALPHABET_SIZE;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/** Scores text by the log-likelihood of its n-grams (sequences of N
+ *  consecutive letters) under a language model.  The log probabilities
+ *  of all ALPHABET_SIZE^N n-grams are kept in one primitive array
+ *  indexed by the n-gram read as a base-ALPHABET_SIZE number, so that
+ *  scoring is one lookup per letter.  N-grams never seen are given the
+ *  probability of FLOOR occurrences.  Tables are immutable and may be
+ *  shared between threads.
+ *
+ *  Tables may be read from files in the common format in which each
+ *  non-blank line not starting with '#' has the form
+ *
+ *      NGRAM COUNT
+ *
+ *  (for example, "TION 12345"), all n-grams having the same length, or
+ *  compiled from any sample of plaintext.
+ *  @author Charles Lee
+ */
+class NgramTable implements Scorer {
+
+    /** Longest n-grams supported. */
+    static final int MAX_LENGTH = 5;
+
+    /** Count given to n-grams not seen. */
+    static final double FLOOR = 0.01;
+
+    /** A table of N-grams with the given COUNTS, indexed as described
+     *  above. */
+    NgramTable(int n, long[] counts) {
+        if (n < 1 || n > MAX_LENGTH || counts.length != size(n)) {
+            throw new IllegalArgumentException("bad n-gram table");
+        }
+        _length = n;
+        _modulus = size(n - 1);
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        total = Math.max(total, 1);
+        _logProbs = new float[counts.length];
+        for (int k = 0; k < counts.length; k += 1) {
+            _logProbs[k] = (float) Math.log10(Math.max(counts[k], FLOOR)
+                                              / total);
+        }
+    }
+
+    /** Return the table read from INPUT, in the format described
+     *  above. */
+    static NgramTable read(Reader input) throws IOException {
+        BufferedReader lines = new BufferedReader(input);
+        long[] counts = null;
+        int n = 0, lineNum = 0;
+        for (String line = lines.readLine(); line != null;
+             line = lines.readLine()) {
+            lineNum += 1;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            try {
+                if (fields.length != 2) {
+                    throw new IllegalArgumentException("wrong field count");
+                }
+                String ngram = Main.standardize(fields[0]);
+                if (counts == null) {
+                    n = ngram.length();
+                    if (n < 1 || n > MAX_LENGTH) {
+                        throw new IllegalArgumentException("bad n-gram "
+                                                           + "length");
+                    }
+                    counts = new long[size(n)];
+                }
+                int index = index(ngram);
+                if (ngram.length() != n || index < 0) {
+                    throw new IllegalArgumentException("bad n-gram "
+                                                       + fields[0]);
+                }
+                counts[index] += Long.parseLong(fields[1]);
+            } catch (IllegalArgumentException excp) {
+                throw new IOException(String.format("n-gram table line %d:"
+                                                    + " %s", lineNum,
+                                                    excp.getMessage()));
+            }
+        }
+        if (counts == null) {
+            throw new IOException("empty n-gram table");
+        }
+        return new NgramTable(n, counts);
+    }
+
+    /** Return the table of N-grams found in the plaintext read from
+     *  TEXT.  Letters are counted regardless of case, and n-grams do
+     *  not span other characters. */
+    static NgramTable train(Reader text, int n) throws IOException {
+        long[] counts = new long[size(n)];
+        int modulus = size(n - 1), index = 0, run = 0;
+        char[] buf = new char[1 << 13];
+        for (int len = text.read(buf); len >= 0; len = text.read(buf)) {
+            for (int i = 0; i < len; i += 1) {
+                int c = Character.toUpperCase(buf[i]) - 'A';
+                if (c < 0 || c >= ALPHABET_SIZE) {
+                    run = 0;
+                    continue;
+                }
+                index = index % modulus * ALPHABET_SIZE + c;
+                run += 1;
+                if (run >= n) {
+                    counts[index] += 1;
+                }
+            }
+        }
+        return new NgramTable(n, counts);
+    }
+
+    /** Return the length of my n-grams. */
+    int length() {
+        return _length;
+    }
+
+    /** Return the base-10 log probability of the n-gram NGRAM, which
+     *  must consist of length() upper-case letters. */
+    double logProbability(String ngram) {
+        return _logProbs[index(ngram)];
+    }
+
+    @Override
+    public double score(char[] text, int n) {
+        if (n < _length) {
+            return 0.0;
+        }
+        int index = 0;
+        for (int i = 0; i < _length; i += 1) {
+            index = index * ALPHABET_SIZE + Rotor.toIndex(text[i]);
+        }
+        double sum = _logProbs[index];
+        for (int i = _length; i < n; i += 1) {
+            index = (index - Rotor.toIndex(text[i - _length]) * _modulus)
+                * ALPHABET_SIZE + Rotor.toIndex(text[i]);
+            sum += _logProbs[index];
+        }
+        return sum;
+    }
+
+    /** Return the index of the n-gram NGRAM, or -1 if it contains a
+     *  character other than an upper-case letter. */
+    private static int index(String ngram) {
+        int index = 0;
+        for (int i = 0; i < ngram.length(); i += 1) {
+            int c = Main.parsePosition(ngram.charAt(i));
+            if (c < 0) {
+                return -1;
+            }
+            index = index * ALPHABET_SIZE + c;
+        }
+        return index;
+    }
+
+    /** Return the number of N-grams. */
+    private static int size(int n) {
+        int result = 1;
+        for (int i = 0; i < n; i += 1) {
+            result *= ALPHABET_SIZE;
+        }
+        return result;
+    }
+
+    /** Length of my n-grams. */
+    private final int _length;
+
+    /** ALPHABET_SIZE^(_length-1), for rolling n-gram indices. */
+    private final int _modulus;
+
+    /** Base-10 log probabilities, indexed by n-gram. */
+    private final float[] _logProbs;
+}
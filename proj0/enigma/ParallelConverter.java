@@ -0,0 +1,66 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/** Converts long messages by splitting them into chunks that are
+ *  converted concurrently.  Each chunk is converted by its own copy of
+ *  the machine, made after advancing the machine (in constant time)
+ *  past the preceding chunks.
+ *  The result is identical to that of Machine.convert.
+ *  @author Charles Lee
+ */
+class ParallelConverter {
+
+    /** Default number of letters in a chunk. */
+    static final int CHUNK_SIZE = 1 << 16;
+
+    /** A converter that uses the common ForkJoinPool and chunks of
+     *  CHUNK_SIZE letters. */
+    ParallelConverter() {
+        this(ForkJoinPool.commonPool(), CHUNK_SIZE);
+    }
+
+    /** A converter that runs on POOL and uses chunks of CHUNKSIZE
+     *  letters. */
+    ParallelConverter(ForkJoinPool pool, int chunkSize) {
+        assert chunkSize > 0;
+        _pool = pool;
+        _chunkSize = chunkSize;
+    }
+
+    /** Returns the encoding/decoding of MSG by M, updating the state of
+     *  M's rotors as for M.convert(MSG). */
+    String convert(Machine m, String msg) {
+        char[] buf = msg.toCharArray();
+        convert(m, buf, 0, buf.length);
+        return new String(buf);
+    }
+
+    /** Replace the upper-case letters in BUF[START .. END-1] with their
+     *  encoding/decoding by M, updating the state of M's rotors as for
+     *  M.convert(BUF, START, END). */
+    void convert(Machine m, char[] buf, int start, int end) {
+        if (end - start <= _chunkSize) {
+            m.convert(buf, start, end);
+            return;
+        }
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int lo = start; lo < end; lo += _chunkSize) {
+            Machine chunk = new Machine(m);
+            int from = lo, to = Math.min(lo + _chunkSize, end);
+            tasks.add(_pool.submit(() -> chunk.convert(buf, from, to)));
+            m.advance(to - from);
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    /** The pool on which chunks are converted. */
+    private final ForkJoinPool _pool;
+
+    /** Number of letters per chunk. */
+    private final int _chunkSize;
+}
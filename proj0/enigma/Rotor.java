@@ -3,15 +3,25 @@ package enigma;
 /** Class that represents a rotor in the enigma machine.
  *  @author Charles Lee
  */
-class Rotor {
+class Rotor implements Cloneable {
 
     /** Size of alphabet used for plaintext and ciphertext. */
     static final int ALPHABET_SIZE = 26;
 
-    /** Rotor constructor. takes String PARAM and int SETTING. */
+    /** Rotor constructor. takes String PARAM and int SETTING.  The
+     *  wiring and alphabet are those of PARAM in
+     *  RotorCatalog.current(). */
     public Rotor(String param, int setting) {
         name = param;
         _setting = setting;
+        _catalog = RotorCatalog.current();
+        _size = _catalog.alphabet().size();
+        _spec = _catalog.index(param);
+        if (_spec >= 0) {
+            _notches = _catalog.notchSet(_spec);
+            _mask = _catalog.notches(_spec);
+            compose();
+        }
     }
     /** Instance variable name. */
     private String name;
@@ -21,56 +31,19 @@ class Rotor {
         return name;
     }
 
-    /** int used for magic numbers. */
-    static final int ANTI_MAGIC = 11;
-
-    /** Parses String A and returns an int. */
+    /** Returns the index of the rotor named A in
+     *  RotorCatalog.current(), or -1 if there is none. */
     static int parseName(String a) {
-        if (a.equals("I")) {
-            return 0;
-        }
-        if (a.equals("II")) {
-            return 1;
-        }
-        if (a.equals("III")) {
-            return 2;
-        }
-        if (a.equals("IV")) {
-            return 3;
-        }
-        if (a.equals("V")) {
-            return 4;
-        }
-        if (a.equals("VI")) {
-            return 5;
-        }
-        if (a.equals("VII")) {
-            return 6;
-        }
-        if (a.equals("VIII")) {
-            return 7;
-        }
-        if (a.equals("BETA")) {
-            return 8;
-        }
-        if (a.equals("GAMMA")) {
-            return 9;
-        }
-        if (a.equals("B")) {
-            return 10;
-        }
-        if (a.equals("C")) {
-            return ANTI_MAGIC;
-        }
-        return -1;
+        return RotorCatalog.current().index(a);
     }
 
-    /** My current setting (index 0..25, with 0 indicating that 'A'
-     *  is showing). */
+    /** My current setting (an index in my alphabet, with 0 indicating
+     *  that its first symbol, 'A' in Alphabet.UPPER, is showing). */
     private int _setting;
 
-    /** Return my current rotational setting as an integer between 0
-     *  and 25 (corresponding to letters 'A' to 'Z').  */
+    /** Return my current rotational setting as an index in my alphabet
+     *  (between 0 and 25, corresponding to letters 'A' to 'Z', in
+     *  Alphabet.UPPER).  */
     int getSetting() {
         return _setting;
     }
@@ -85,14 +58,16 @@ class Rotor {
     }
 
     /** Assuming that P is an integer in the range 0..25, returns the
-     *  corresponding upper-case letter in the range A..Z. */
+     *  corresponding upper-case letter in the range A..Z.  This is
+     *  Alphabet.UPPER.toSymbol, specialized. */
     static char toLetter(int p) {
         return (char) ('A' + p);
 
     }
 
     /** Assuming that C is an upper-case letter in the range A-Z, return the
-     *  corresponding index in the range 0..25. Inverse of toLetter. */
+     *  corresponding index in the range 0..25. Inverse of toLetter.
+     *  This is Alphabet.UPPER.toIndex, specialized. */
     static int toIndex(char c) {
         return c - 'A';
     }
@@ -109,39 +84,167 @@ class Rotor {
 
     /** Set getSetting() to POSN.  */
     void set(int posn) {
-        assert 0 <= posn && posn < ALPHABET_SIZE;
+        assert 0 <= posn && posn < _size;
         _setting = posn;
     }
 
-    /** Return the conversion of P (an integer in the range 0..25)
-     *  according to my permutation. */
+    /** Return the conversion of P (an index in my alphabet) according
+     *  to my permutation. */
     int convertForward(int p) {
-        return mod(PermutationData.ROTOR_SPECS[parseName(name)][1].charAt(
-            (p + _setting) % ALPHABET_SIZE) - _setting - 'A', ALPHABET_SIZE);
+        return _forward[_setting * _size + p];
     }
 
-    /** Return the conversion of E (an integer in the range 0..25)
-     *  according to the inverse of my permutation. */
+    /** Return the conversion of E (an index in my alphabet) according
+     *  to the inverse of my permutation. */
     int convertBackward(int e) {
-        return mod(PermutationData.ROTOR_SPECS[parseName(name)][2].charAt(
-            (e + _setting) % ALPHABET_SIZE) - _setting - 'A', ALPHABET_SIZE);
+        return _backward[_setting * _size + e];
+    }
+
+    /** Return the catalog from which my wiring comes. */
+    RotorCatalog getCatalog() {
+        return _catalog;
+    }
+
+    /** Return the index of my entry in the catalog from which my
+     *  wiring comes, or -1 if my name is unknown. */
+    int getIndex() {
+        return _spec;
+    }
+
+    /** Return the alphabet I permute. */
+    Alphabet alphabet() {
+        return _catalog.alphabet();
+    }
+
+    /** Return my right-to-left conversion table: entry S * N + P, where
+     *  N is the size of my alphabet, is convertForward(P) at setting S.
+     *  The result must not be modified. */
+    int[] forwardTable() {
+        return _forward;
+    }
+
+    /** Return my left-to-right conversion table, laid out as for
+     *  forwardTable(), or null if I have no inverse.  The result must
+     *  not be modified. */
+    int[] backwardTable() {
+        return _backward;
+    }
+
+    /** Return my ring setting (an index in my alphabet, with 0
+     *  indicating that the ring is at its first symbol). */
+    int getRing() {
+        return _ring;
+    }
+
+    /** Set getRing() to RING.  The ring offsets my wiring from my
+     *  setting; it does not move my notches. */
+    void setRing(int ring) {
+        assert 0 <= ring && ring < _size;
+        if (ring != _ring) {
+            _ring = ring;
+            compose();
+        }
+    }
+
+    /** Compose the plugboard permutation PLUGBOARD (an involution, as
+     *  returned by Configuration.parsePlugboard) into my tables, so that
+     *  convertForward first applies PLUGBOARD and convertBackward applies
+     *  it last.  Indices beyond the end of PLUGBOARD are unplugged.  A
+     *  null PLUGBOARD restores my plain wiring.  Intended
+     *  for the rightmost rotor, which thereby carries the plugboard at
+     *  no cost per letter. */
+    void setPlugboard(int[] plugboard) {
+        _plugboard = plugboard;
+        compose();
+    }
+
+    /** Set my tables from my catalog entry, ring setting and
+     *  plugboard. */
+    private void compose() {
+        if (_spec < 0) {
+            return;
+        }
+        _forward = _catalog.forward(_spec, _ring);
+        _backward = _catalog.backward(_spec, _ring);
+        if (_plugboard == null || _backward == null) {
+            return;
+        }
+        int[] forward = new int[_forward.length],
+            backward = new int[_backward.length];
+        for (int s = 0; s < _size; s += 1) {
+            int base = s * _size;
+            for (int p = 0; p < _size; p += 1) {
+                forward[base + p] = _forward[base + plug(p)];
+                backward[base + p] = plug(_backward[base + p]);
+            }
+        }
+        _forward = forward;
+        _backward = backward;
+    }
+
+    /** Return the index to which my plugboard connects P. */
+    private int plug(int p) {
+        return p < _plugboard.length ? _plugboard[p] : p;
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
      *  to advance. */
     boolean atNotch() {
-        if (parseName(name) <= 4) {
-            return PermutationData.ROTOR_SPECS[parseName(name)][3].charAt(0)
-                == (char) ('A' + _setting);
-        } else if (parseName(name) <= 7) {
-            return ((char) ('A' + _setting)) == 'Z'
-                || ((char) ('A' + _setting)) == 'M';
-        }
-        return false;
+        return (_notches[_setting >>> RotorCatalog.WORD_SHIFT]
+                & (1L << _setting)) != 0;
+    }
+
+    /** Return my notches among the first ALPHABET_SIZE settings: bit S
+     *  is set iff atNotch() at setting S. */
+    int getNotches() {
+        return _mask;
     }
 
+    /** My right-to-left conversions, indexed by
+     *  _setting * _size + input.  Null if my name is unknown. */
+    private int[] _forward;
+
+    /** My left-to-right conversions, laid out as for _forward.  Null
+     *  for reflectors and unknown names. */
+    private int[] _backward;
+
+    /** The catalog from which my wiring comes. */
+    private final RotorCatalog _catalog;
+
+    /** Index of my entry in _catalog, or -1 if my name is unknown. */
+    private final int _spec;
+
+    /** My ring setting. */
+    private int _ring;
+
+    /** Plugboard permutation composed into my tables, or null. */
+    private int[] _plugboard;
+
+    /** Number of symbols in my alphabet. */
+    private final int _size;
+
+    /** Bit K % 64 of word K / 64 is set iff I am at a notch at setting
+     *  K. */
+    private long[] _notches = NO_NOTCHES;
+
+    /** Bits 0 .. ALPHABET_SIZE-1 of _notches. */
+    private int _mask;
+
+    /** The notches of a rotor whose name is unknown. */
+    private static final long[] NO_NOTCHES = new long[1];
+
     /** Advance me one position. */
     void advance() {
-        this._setting = (this._setting + 1) % ALPHABET_SIZE;
+        this._setting = (this._setting + 1) % _size;
+    }
+
+    /** Return a new rotor of my class with my name, wiring and current
+     *  setting, whose setting changes independently of mine. */
+    Rotor copy() {
+        try {
+            return (Rotor) clone();
+        } catch (CloneNotSupportedException excp) {
+            throw new AssertionError(excp);
+        }
     }
 }
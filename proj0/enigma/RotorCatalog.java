@@ -0,0 +1,409 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/** A registry of named rotors and reflectors, with their wirings compiled
+ *  into setting-indexed tables.  Each entry has an index, found from its
+ *  name with a single hash lookup, through which its tables and notches
+ *  are retrieved.  Every entry of a catalog permutes the same alphabet
+ *  (Alphabet.UPPER unless otherwise specified).  Tables for ring
+ *  setting 0 are compiled when an entry is registered, and those for
+ *  other ring settings when first requested.  A catalog must not be
+ *  changed once it is in use by rotors.
+ *
+ *  Catalogs may be read from text files in which each non-blank line
+ *  not starting with '#' has the form
+ *
+ *      KIND NAME WIRING [NOTCHES]
+ *
+ *  where KIND is ROTOR (a rotor that advances), FIXED (a rotor that does
+ *  not) or REFLECTOR; WIRING is a permutation of the alphabet giving the
+ *  right-to-left mapping of its symbols, in order, at setting 0 (as in
+ *  PermutationData); and NOTCHES, for ROTORs only, lists the symbols
+ *  for the settings at which the rotor to its left advances.  An entry
+ *  replaces any earlier entry with the same name.
+ *  @author Charles Lee
+ */
+class RotorCatalog {
+
+    /** Kinds of catalog entries. */
+    enum Kind {
+        /** A rotor with a ratchet. */
+        ROTOR,
+        /** A rotor that does not advance. */
+        FIXED,
+        /** A reflector. */
+        REFLECTOR
+    }
+
+    /** The catalog described by PermutationData. */
+    static final RotorCatalog STANDARD = new RotorCatalog();
+
+    static {
+        for (String[] spec : PermutationData.ROTOR_SPECS) {
+            Kind kind = spec.length == 2 ? Kind.REFLECTOR
+                : spec.length == 3 ? Kind.FIXED : Kind.ROTOR;
+            STANDARD.register(kind, spec[0], spec[1],
+                              spec.length > 3 ? spec[3] : "");
+        }
+    }
+
+    /** An empty catalog over Alphabet.UPPER. */
+    RotorCatalog() {
+        this(Alphabet.UPPER);
+    }
+
+    /** An empty catalog over ALPHABET. */
+    RotorCatalog(Alphabet alphabet) {
+        _alphabet = alphabet;
+    }
+
+    /** A catalog with the same alphabet and entries as BASE. */
+    RotorCatalog(RotorCatalog base) {
+        _alphabet = base._alphabet;
+        _index.putAll(base._index);
+        _names.addAll(base._names);
+        _kinds.addAll(base._kinds);
+        synchronized (base) {
+            for (int k = 0; k < base.size(); k += 1) {
+                _tables.add(base._tables.get(k).clone());
+                int[][] inverses = base._inverses.get(k);
+                _inverses.add(inverses == null ? null : inverses.clone());
+            }
+        }
+        _masks.addAll(base._masks);
+        _notches.addAll(base._notches);
+    }
+
+    /** Return the catalog used to construct rotors by name. */
+    static RotorCatalog current() {
+        return _current;
+    }
+
+    /** Make CATALOG the one used to construct rotors by name. */
+    static void setCurrent(RotorCatalog catalog) {
+        _current = catalog;
+    }
+
+    /** Return a catalog over ALPHABET with the names, kinds and notch
+     *  settings of the entries of STANDARD, but with wirings chosen
+     *  using RANDOM.  ALPHABET must have an even number of symbols, at
+     *  least ALPHABET_SIZE. */
+    static RotorCatalog random(Alphabet alphabet, Random random) {
+        int n = alphabet.size();
+        if (n % 2 != 0 || n < Rotor.ALPHABET_SIZE) {
+            throw new IllegalArgumentException("unsuitable alphabet");
+        }
+        RotorCatalog result = new RotorCatalog(alphabet);
+        for (int k = 0; k < STANDARD.size(); k += 1) {
+            int[] perm = new int[n];
+            for (int p = 0; p < n; p += 1) {
+                perm[p] = p;
+            }
+            for (int p = n - 1; p > 0; p -= 1) {
+                int q = random.nextInt(p + 1), t = perm[p];
+                perm[p] = perm[q];
+                perm[q] = t;
+            }
+            if (STANDARD.kind(k) == Kind.REFLECTOR) {
+                int[] pairs = perm;
+                perm = new int[n];
+                for (int p = 0; p < n; p += 2) {
+                    perm[pairs[p]] = pairs[p + 1];
+                    perm[pairs[p + 1]] = pairs[p];
+                }
+            }
+            result.register(STANDARD.kind(k), STANDARD.name(k), perm,
+                            Arrays.copyOf(STANDARD.notchSet(k), words(n)));
+        }
+        return result;
+    }
+
+    /** Return a catalog containing the entries of BASE and then those
+     *  read from INPUT, in the format described above. */
+    static RotorCatalog read(RotorCatalog base, Reader input)
+        throws IOException {
+        RotorCatalog result = new RotorCatalog(base);
+        BufferedReader lines = new BufferedReader(input);
+        int lineNum = 0;
+        for (String line = lines.readLine(); line != null;
+             line = lines.readLine()) {
+            lineNum += 1;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            try {
+                Kind kind = Kind.valueOf(fields[0]);
+                if (fields.length != 3
+                    && !(kind == Kind.ROTOR && fields.length == 4)) {
+                    throw new IllegalArgumentException("wrong field count");
+                }
+                result.register(kind, fields[1], fields[2],
+                                fields.length > 3 ? fields[3] : "");
+            } catch (IllegalArgumentException excp) {
+                throw new IOException(String.format("rotor catalog line %d:"
+                                                    + " %s", lineNum,
+                                                    excp.getMessage()));
+            }
+        }
+        return result;
+    }
+
+    /** Add (or replace) the entry NAME of kind KIND, with wiring WIRING
+     *  and notches at the settings whose symbols are listed in NOTCHES,
+     *  returning its index.  Throws IllegalArgumentException if WIRING
+     *  is not a permutation of my alphabet, a reflector's wiring is not
+     *  a fixed-point-free involution, or NOTCHES contains a character
+     *  not in my alphabet. */
+    int register(Kind kind, String name, String wiring, String notches) {
+        int n = _alphabet.size();
+        if (wiring.length() != n) {
+            throw new IllegalArgumentException("bad wiring for " + name);
+        }
+        int[] perm = new int[n];
+        for (int p = 0; p < n; p += 1) {
+            perm[p] = _alphabet.toIndex(wiring.charAt(p));
+        }
+        long[] notchSet = new long[words(n)];
+        for (int i = 0; i < notches.length(); i += 1) {
+            int s = _alphabet.toIndex(notches.charAt(i));
+            if (s == -1) {
+                throw new IllegalArgumentException("bad notch for " + name);
+            }
+            notchSet[s >>> WORD_SHIFT] |= 1L << s;
+        }
+        return register(kind, name, perm, notchSet);
+    }
+
+    /** Add (or replace) the entry NAME of kind KIND, with wiring PERM
+     *  (the indices to which the symbols of my alphabet are mapped,
+     *  in order) and notches NOTCHSET (as for notchSet), returning its
+     *  index.  Throws IllegalArgumentException if PERM is not a
+     *  permutation of my alphabet's indices or a reflector's PERM is
+     *  not a fixed-point-free involution. */
+    int register(Kind kind, String name, int[] perm, long[] notchSet) {
+        int n = _alphabet.size();
+        if (perm.length != n || notchSet.length != words(n)) {
+            throw new IllegalArgumentException("bad wiring for " + name);
+        }
+        int[] inverse = new int[n];
+        boolean[] seen = new boolean[n];
+        for (int p = 0; p < n; p += 1) {
+            if (perm[p] < 0 || perm[p] >= n || seen[perm[p]]) {
+                throw new IllegalArgumentException("bad wiring for " + name);
+            }
+            seen[perm[p]] = true;
+            inverse[perm[p]] = p;
+        }
+        if (kind == Kind.REFLECTOR) {
+            for (int p = 0; p < n; p += 1) {
+                if (perm[p] == p || perm[perm[p]] != p) {
+                    throw new IllegalArgumentException("bad reflector "
+                                                       + name);
+                }
+            }
+        }
+
+        int[][] tables = new int[n][], inverses = null;
+        tables[0] = compile(perm);
+        if (kind != Kind.REFLECTOR) {
+            inverses = new int[n][];
+            inverses[0] = compile(inverse);
+        }
+        int mask = (int) notchSet[0] & ((1 << Rotor.ALPHABET_SIZE) - 1);
+        Integer k = _index.get(name);
+        if (k == null) {
+            k = _names.size();
+            _index.put(name, k);
+            _names.add(name);
+            _kinds.add(kind);
+            _tables.add(tables);
+            _inverses.add(inverses);
+            _masks.add(mask);
+            _notches.add(notchSet);
+        } else {
+            _kinds.set(k, kind);
+            _tables.set(k, tables);
+            _inverses.set(k, inverses);
+            _masks.set(k, mask);
+            _notches.set(k, notchSet);
+        }
+        return k;
+    }
+
+    /** Return the alphabet permuted by my entries. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the index of the entry named NAME, or -1 if there is
+     *  none. */
+    int index(String name) {
+        Integer k = _index.get(name);
+        return k == null ? -1 : k;
+    }
+
+    /** Return the index of the entry whose name is CHARS[START ..
+     *  END-1], or -1 if there is none.  Unlike index(String), this
+     *  allocates nothing; it compares the name with each entry's in
+     *  turn, which for catalogs of a few dozen entries is about as fast
+     *  as hashing it. */
+    int index(char[] chars, int start, int end) {
+        for (int k = 0; k < _names.size(); k += 1) {
+            String name = _names.get(k);
+            if (name.length() != end - start) {
+                continue;
+            }
+            int i;
+            for (i = start; i < end; i += 1) {
+                if (name.charAt(i - start) != chars[i]) {
+                    break;
+                }
+            }
+            if (i == end) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the number of entries. */
+    int size() {
+        return _names.size();
+    }
+
+    /** Return the name of entry K. */
+    String name(int k) {
+        return _names.get(k);
+    }
+
+    /** Return the kind of entry K. */
+    Kind kind(int k) {
+        return _kinds.get(k);
+    }
+
+    /** Return true iff NAME is an entry of kind KIND. */
+    boolean isA(String name, Kind kind) {
+        int k = index(name);
+        return k >= 0 && _kinds.get(k) == kind;
+    }
+
+    /** Return the names of all entries of kind KIND, in index order. */
+    List<String> names(Kind kind) {
+        ArrayList<String> result = new ArrayList<>();
+        for (int k = 0; k < _names.size(); k += 1) {
+            if (_kinds.get(k) == kind) {
+                result.add(_names.get(k));
+            }
+        }
+        return result;
+    }
+
+    /** Return the notches of entry K among the first ALPHABET_SIZE
+     *  settings: bit S is set iff the rotor to its left advances when it
+     *  is at setting S.  This is all of them for a catalog over
+     *  Alphabet.UPPER. */
+    int notches(int k) {
+        return _masks.get(k);
+    }
+
+    /** Return the notches of entry K as a bit set in words of 64 bits:
+     *  bit S % 64 of word S / 64 is set iff the rotor to its left
+     *  advances when it is at setting S.  The result must not be
+     *  modified. */
+    long[] notchSet(int k) {
+        return _notches.get(k);
+    }
+
+    /** Return the right-to-left conversion table of entry K with ring
+     *  setting RING: entry S * N + P, where N is the size of my
+     *  alphabet, is the conversion of P at setting S.  The result must
+     *  not be modified. */
+    synchronized int[] forward(int k, int ring) {
+        return ring(_tables.get(k), ring);
+    }
+
+    /** Return the left-to-right conversion table of entry K with ring
+     *  setting RING, laid out as for forward, or null for a reflector.
+     *  The result must not be modified. */
+    synchronized int[] backward(int k, int ring) {
+        int[][] inverses = _inverses.get(k);
+        return inverses == null ? null : ring(inverses, ring);
+    }
+
+    /** Return TABLES[RING], first deriving it from TABLES[0], the table
+     *  for ring setting 0, if necessary.  Moving the ring by R positions
+     *  has the effect on the wiring of moving the setting back by R. */
+    private static int[] ring(int[][] tables, int ring) {
+        if (tables[ring] == null) {
+            int n = tables.length;
+            int[] table = new int[n * n];
+            for (int s = 0; s < n; s += 1) {
+                System.arraycopy(tables[0], Rotor.mod(s - ring, n) * n,
+                                 table, s * n, n);
+            }
+            tables[ring] = table;
+        }
+        return tables[ring];
+    }
+
+    /** Return the setting-indexed conversion table for the permutation
+     *  PERM (at setting 0) of the indices of an alphabet of N =
+     *  PERM.length symbols.  Entry S * N + P is the conversion of P at
+     *  setting S. */
+    static int[] compile(int[] perm) {
+        int n = perm.length;
+        int[] table = new int[n * n];
+        for (int s = 0; s < n; s += 1) {
+            for (int p = 0; p < n; p += 1) {
+                table[s * n + p] = Rotor.mod(perm[(p + s) % n] - s, n);
+            }
+        }
+        return table;
+    }
+
+    /** Return the number of 64-bit words in a bit set of N bits. */
+    private static int words(int n) {
+        return (n + (1 << WORD_SHIFT) - 1) >>> WORD_SHIFT;
+    }
+
+    /** Log base 2 of the number of bits in a word of a notch set. */
+    static final int WORD_SHIFT = 6;
+
+    /** The alphabet permuted by my entries. */
+    private final Alphabet _alphabet;
+
+    /** The catalog used to construct rotors by name. */
+    private static volatile RotorCatalog _current = STANDARD;
+
+    /** Maps names to indices. */
+    private final HashMap<String, Integer> _index = new HashMap<>();
+
+    /** Entry names, by index. */
+    private final ArrayList<String> _names = new ArrayList<>();
+
+    /** Entry kinds, by index. */
+    private final ArrayList<Kind> _kinds = new ArrayList<>();
+
+    /** Right-to-left tables, by index and then ring setting.  Null
+     *  entries for ring settings other than 0 are yet to be derived. */
+    private final ArrayList<int[][]> _tables = new ArrayList<>();
+
+    /** Left-to-right tables, by index and then ring setting. */
+    private final ArrayList<int[][]> _inverses = new ArrayList<>();
+
+    /** Notch masks of the first ALPHABET_SIZE settings, by index. */
+    private final ArrayList<Integer> _masks = new ArrayList<>();
+
+    /** Notch sets, by index. */
+    private final ArrayList<long[]> _notches = new ArrayList<>();
+}
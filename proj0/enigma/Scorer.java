@@ -0,0 +1,13 @@
+package enigma;
+
+/** A measure of how much a candidate decryption resembles plaintext.
+ *  Higher scores are better.  Scorers take letters from char arrays so
+ *  that decryptions done in place by Machine.convert(char[], ...) are
+ *  scored without making Strings.
+ *  @author Charles Lee
+ */
+interface Scorer {
+
+    /** Return the score of the upper-case letters TEXT[0 .. N-1]. */
+    double score(char[] text, int n);
+}
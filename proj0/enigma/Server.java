@@ -0,0 +1,439 @@
+package enigma;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A conversion service on a local port, so that many conversions can
+ *  be done by one long-lived process.  The protocol is line-based.  A
+ *  client sends configuration lines and message lines in the format
+ *  of enigma.Main's input.  A configuration line applies to the
+ *  message lines after it on the same connection.  Each message line
+ *  is a separate request, converted from the configuration's initial
+ *  settings, and is answered by one line: the conversion in groups of
+ *  five letters, or a line starting with '?' describing an error.  An
+ *  invalid configuration line is answered by such an error line, and
+ *  a valid one by nothing.  Requests on a connection are answered in
+ *  order, and may be sent without waiting for earlier answers.  A last
+ *  line without a line terminator is a request like any other, and a
+ *  line longer than MAX_LINE bytes is answered by an error line.  A
+ *  connection on which reading or writing fails is closed, without
+ *  affecting the others, and a failure to accept a connection is
+ *  reported on the standard error without stopping the server.
+ *
+ *  One thread reads and writes all connections through a Selector.
+ *  The requests read in one round are grouped by configuration, and
+ *  each group is converted as one task on a ForkJoinPool with one
+ *  machine from a MachinePool.
+ *  @author Charles Lee
+ */
+class Server implements AutoCloseable {
+
+    /** Size of the buffer used to read from connections. */
+    static final int READ_SIZE = 1 << 16;
+
+    /** Length in bytes of the longest line accepted. */
+    static final int MAX_LINE = 1 << 20;
+
+    /** A server listening on PORT of the loopback interface (0 to
+     *  choose a free port), converting on EXECUTOR. */
+    Server(int port, ForkJoinPool executor) throws IOException {
+        _executor = executor;
+        _selector = Selector.open();
+        _listener = ServerSocketChannel.open();
+        _listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                             port));
+        _listener.configureBlocking(false);
+        _listener.register(_selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /** Return the port on which I listen. */
+    int port() {
+        return _listener.socket().getLocalPort();
+    }
+
+    /** Return the number of message requests received. */
+    long requests() {
+        return _requests.sum();
+    }
+
+    /** Return the number of batches into which requests were grouped
+     *  for conversion. */
+    long batches() {
+        return _batches.sum();
+    }
+
+    /** Serve connections until closed. */
+    void run() throws IOException {
+        while (!_closed) {
+            _selector.select();
+            Iterator<SelectionKey> keys = _selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+                Connection conn = (Connection) key.attachment();
+                if (key.isReadable()) {
+                    conn.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    conn.flush();
+                }
+            }
+            dispatch();
+            for (Connection conn = _ready.poll(); conn != null;
+                 conn = _ready.poll()) {
+                conn.flush();
+            }
+        }
+        for (SelectionKey key : _selector.keys()) {
+            key.channel().close();
+        }
+        _selector.close();
+    }
+
+    /** Stop serving.  Returns at once; run returns when it has closed
+     *  all connections. */
+    @Override
+    public void close() {
+        _closed = true;
+        _selector.wakeup();
+    }
+
+    /** Accept a pending connection, if any.  A failure to accept is
+     *  reported on the standard error and leaves the server running.  A
+     *  connection that fails while being set up is closed. */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        try {
+            channel = _listener.accept();
+        } catch (IOException excp) {
+            System.err.printf("Accept failed: %s%n", excp.getMessage());
+            return;
+        }
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection conn = new Connection(channel);
+            conn._key = channel.register(_selector, SelectionKey.OP_READ,
+                                         conn);
+        } catch (IOException excp) {
+            channel.close();
+        }
+    }
+
+    /** Convert the requests read in this round, in batches of requests
+     *  with equal configurations. */
+    private void dispatch() {
+        if (_batch.isEmpty()) {
+            return;
+        }
+        HashMap<String, List<Request>> groups = new HashMap<>();
+        for (Request req : _batch) {
+            groups.computeIfAbsent(req._config.toString(),
+                                   k -> new ArrayList<>()).add(req);
+        }
+        _batch.clear();
+        for (List<Request> group : groups.values()) {
+            _batches.increment();
+            _executor.execute(() -> convert(group));
+        }
+    }
+
+    /** Convert the requests in GROUP, which have equal configurations,
+     *  with one machine, and hand their connections back to the
+     *  selector thread.  The machine is returned to its initial
+     *  settings between requests by restoring a snapshot, or, if its
+     *  state cannot be snapshot, by resetting it. */
+    private void convert(List<Request> group) {
+        Configuration config = group.get(0)._config;
+        Machine m = _machines.acquire(config);
+        boolean snapshot = m.canSnapshot();
+        long start = snapshot ? m.snapshot() : 0;
+        for (int i = 0; i < group.size(); i += 1) {
+            Request req = group.get(i);
+            if (i > 0 && snapshot) {
+                m.restore(start);
+            } else if (i > 0) {
+                config.reset(m);
+            }
+            req._response = format(m.convert(req._text));
+        }
+        _machines.release(config, m);
+        for (Request req : group) {
+            _ready.add(req._conn);
+        }
+        _selector.wakeup();
+    }
+
+    /** Return MSG in groups of five letters, as a line of bytes. */
+    static byte[] format(String msg) {
+        int n = msg.length(), group = StreamConverter.GROUP_SIZE;
+        byte[] result = new byte[n + Math.max(0, n - 1) / group + 1];
+        int k = 0;
+        for (int i = 0; i < n; i += 1) {
+            if (i > 0 && i % group == 0) {
+                result[k] = ' ';
+                k += 1;
+            }
+            result[k] = (byte) msg.charAt(i);
+            k += 1;
+        }
+        result[k] = '\n';
+        return result;
+    }
+
+    /** Return the configuration given by LINE, or null if LINE is not a
+     *  valid configuration line for RotorCatalog.current(). */
+    static Configuration parseConfiguration(String line) {
+        try {
+            Configuration config = Configuration.parse(line.trim());
+            RotorCatalog catalog = RotorCatalog.current();
+            if (!catalog.isA(config.name(0), RotorCatalog.Kind.REFLECTOR)
+                || !catalog.isA(config.name(1), RotorCatalog.Kind.FIXED)) {
+                return null;
+            }
+            for (int k = 2; k < Configuration.NUM_ROTORS; k += 1) {
+                if (!catalog.isA(config.name(k), RotorCatalog.Kind.ROTOR)) {
+                    return null;
+                }
+            }
+            return config;
+        } catch (IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    /** A message request. */
+    private static class Request {
+        /** A request on CONN to convert TEXT as CONFIG describes, or,
+         *  if CONFIG is null, one answered by RESPONSE. */
+        Request(Connection conn, Configuration config, String text,
+                byte[] response) {
+            _conn = conn;
+            _config = config;
+            _text = text;
+            _response = response;
+        }
+
+        /** Connection on which the request arrived. */
+        private final Connection _conn;
+        /** Configuration to convert with. */
+        private final Configuration _config;
+        /** Upper-case letters to convert. */
+        private final String _text;
+        /** The answer, or null until converted. */
+        private volatile byte[] _response;
+    }
+
+    /** The state of one client connection.  Used only by the selector
+     *  thread. */
+    private class Connection {
+        /** A connection on CHANNEL. */
+        Connection(SocketChannel channel) {
+            _channel = channel;
+        }
+
+        /** Read what is available, queueing requests for the lines
+         *  completed, or for the last line if the input is exhausted.
+         *  Closes the connection if reading fails. */
+        void read() {
+            _in.clear();
+            int n;
+            try {
+                n = _channel.read(_in);
+            } catch (IOException excp) {
+                close();
+                return;
+            }
+            if (n < 0) {
+                _eof = true;
+                if (_length > 0) {
+                    endLine();
+                }
+                flush();
+                return;
+            }
+            byte[] buf = _in.array();
+            for (int i = 0; i < n; i += 1) {
+                if (buf[i] == '\n') {
+                    endLine();
+                } else if (_length < MAX_LINE) {
+                    if (_length == _line.length) {
+                        _line = Arrays.copyOf(_line,
+                                              Math.min(2 * _length,
+                                                       MAX_LINE));
+                    }
+                    _line[_length] = buf[i];
+                    _length += 1;
+                } else {
+                    _length = MAX_LINE + 1;
+                }
+            }
+            flush();
+        }
+
+        /** Handle the line read into _line, answering with an error if
+         *  it was longer than MAX_LINE, and start a new one. */
+        private void endLine() {
+            if (_length > MAX_LINE) {
+                answer("? line too long");
+            } else {
+                line(new String(_line, 0, _length,
+                                StandardCharsets.ISO_8859_1));
+            }
+            _length = 0;
+        }
+
+        /** Handle the complete input line LINE. */
+        private void line(String line) {
+            if (line.endsWith("\r")) {
+                line = line.substring(0, line.length() - 1);
+            }
+            if (line.startsWith("*")) {
+                Configuration config = parseConfiguration(line);
+                if (config == null) {
+                    answer("? bad configuration");
+                } else {
+                    _config = config;
+                }
+                return;
+            }
+            if (_config == null) {
+                answer("? no configuration");
+                return;
+            }
+            String text = Main.standardize(line);
+            Request req = new Request(this, _config, text, null);
+            _requests.increment();
+            _pending.add(req);
+            _batch.add(req);
+        }
+
+        /** Queue the answer MSG, which needs no conversion. */
+        private void answer(String msg) {
+            _pending.add(new Request(this, null, null,
+                                     (msg + "\n").getBytes(
+                                         StandardCharsets.ISO_8859_1)));
+        }
+
+        /** Write the answers that are ready, in order, as far as the
+         *  channel allows, and close the connection if its input is
+         *  exhausted and all its answers are written, or if writing
+         *  fails.  Does nothing if the connection is closed. */
+        void flush() {
+            if (!_key.isValid()) {
+                return;
+            }
+            while (!_pending.isEmpty() && _pending.peek()._response != null) {
+                _out.add(ByteBuffer.wrap(_pending.poll()._response));
+            }
+            try {
+                while (!_out.isEmpty()) {
+                    ByteBuffer buf = _out.peek();
+                    _channel.write(buf);
+                    if (buf.hasRemaining()) {
+                        break;
+                    }
+                    _out.poll();
+                }
+            } catch (IOException excp) {
+                close();
+                return;
+            }
+            if (_eof && _pending.isEmpty() && _out.isEmpty()) {
+                close();
+            } else {
+                _key.interestOps((_eof ? 0 : SelectionKey.OP_READ)
+                                 | (_out.isEmpty() ? 0
+                                    : SelectionKey.OP_WRITE));
+            }
+        }
+
+        /** Stop selecting my channel and close it, abandoning any
+         *  unanswered requests. */
+        void close() {
+            _key.cancel();
+            try {
+                _channel.close();
+            } catch (IOException excp) {
+                /* Nothing more can be done with the channel. */
+            }
+        }
+
+        /** My channel. */
+        private final SocketChannel _channel;
+        /** My channel's registration with the selector. */
+        private SelectionKey _key;
+        /** The configuration set by the last valid configuration line,
+         *  or null. */
+        private Configuration _config;
+        /** The incomplete last line read, truncated to MAX_LINE
+         *  bytes. */
+        private byte[] _line = new byte[256];
+        /** Number of bytes in _line, or MAX_LINE + 1 if the line is
+         *  too long. */
+        private int _length;
+        /** Requests not yet answered, in order of arrival. */
+        private final ArrayDeque<Request> _pending = new ArrayDeque<>();
+        /** Answers not yet completely written. */
+        private final ArrayDeque<ByteBuffer> _out = new ArrayDeque<>();
+        /** True iff the client has finished sending. */
+        private boolean _eof;
+    }
+
+    /** Executor on which batches are converted. */
+    private final ForkJoinPool _executor;
+
+    /** Source of machines for conversion. */
+    private final MachinePool _machines = new MachinePool();
+
+    /** Selector for all channels. */
+    private final Selector _selector;
+
+    /** The channel on which connections are accepted. */
+    private final ServerSocketChannel _listener;
+
+    /** Buffer into which connections are read. */
+    private final ByteBuffer _in = ByteBuffer.allocate(READ_SIZE);
+
+    /** Requests read in the current round, not yet dispatched. */
+    private final ArrayList<Request> _batch = new ArrayList<>();
+
+    /** Connections with newly converted requests. */
+    private final ConcurrentLinkedQueue<Connection> _ready =
+        new ConcurrentLinkedQueue<>();
+
+    /** Number of message requests received. */
+    private final LongAdder _requests = new LongAdder();
+
+    /** Number of batches converted. */
+    private final LongAdder _batches = new LongAdder();
+
+    /** True once I have been closed. */
+    private volatile boolean _closed;
+}
@@ -0,0 +1,161 @@
+package enigma;
+
+import static enigma.Rotor.ALPHABET_SIZE;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/** The sequence of settings through which the three moving rotors of a
+ *  machine pass.  A state is the settings of the leftmost, middle and
+ *  rightmost moving rotors (L, M, R) read as the base-ALPHABET_SIZE
+ *  number (L * ALPHABET_SIZE + M) * ALPHABET_SIZE + R.  Since the next
+ *  state depends only on the current one and on the notches of the
+ *  middle and rightmost rotors, the successor of every state is
+ *  tabulated once per pair of notch sets, and the state N steps on from
+ *  any state is found in constant time from the cycle that the states
+ *  eventually enter.  Schedules are immutable and shared.
+ *  @author Charles Lee
+ */
+class SteppingSchedule {
+
+    /** Number of states of the three moving rotors. */
+    static final int STATES = ALPHABET_SIZE * ALPHABET_SIZE * ALPHABET_SIZE;
+
+    /** Return the schedule for a middle rotor with notches MIDDLE and a
+     *  rightmost rotor with notches RIGHT (bit sets of settings, as for
+     *  RotorCatalog.notches). */
+    static SteppingSchedule of(int middle, int right) {
+        long key = ((long) middle << ALPHABET_SIZE) | right;
+        return SCHEDULES.computeIfAbsent(key,
+                                         k -> new SteppingSchedule(middle,
+                                                                   right));
+    }
+
+    /** The schedule for notches MIDDLE and RIGHT. */
+    private SteppingSchedule(int middle, int right) {
+        _next = new int[STATES];
+        for (int s = 0; s < STATES; s += 1) {
+            int l = left(s), m = middle(s), r = right(s);
+            boolean atMiddle = (middle & (1 << m)) != 0;
+            if (atMiddle) {
+                l = (l + 1) % ALPHABET_SIZE;
+            }
+            if (atMiddle || (right & (1 << r)) != 0) {
+                m = (m + 1) % ALPHABET_SIZE;
+            }
+            r = (r + 1) % ALPHABET_SIZE;
+            _next[s] = state(l, m, r);
+        }
+
+        _tail = new int[STATES];
+        _entry = new int[STATES];
+        _cycle = new int[STATES];
+        _cycleStart = new int[STATES];
+        _cycleLength = new int[STATES];
+        int[] path = new int[STATES];
+        int[] mark = new int[STATES];
+        int filled = 0;
+        for (int s0 = 0; s0 < STATES; s0 += 1) {
+            int n = 0, s = s0;
+            while (mark[s] == 0) {
+                mark[s] = s0 + 1;
+                path[n] = s;
+                n += 1;
+                s = _next[s];
+            }
+            int k = n;
+            if (mark[s] == s0 + 1) {
+                int start = filled;
+                do {
+                    k -= 1;
+                } while (path[k] != s);
+                for (int i = k; i < n; i += 1) {
+                    _cycle[filled] = path[i];
+                    _entry[path[i]] = filled;
+                    _cycleStart[path[i]] = start;
+                    _cycleLength[path[i]] = n - k;
+                    filled += 1;
+                }
+            }
+            for (int i = k - 1; i >= 0; i -= 1) {
+                int t = path[i], u = _next[t];
+                _tail[t] = _tail[u] + 1;
+                _entry[t] = _entry[u];
+                _cycleStart[t] = _cycleStart[u];
+                _cycleLength[t] = _cycleLength[u];
+            }
+        }
+    }
+
+    /** Return the state following S. */
+    int next(int s) {
+        return _next[s];
+    }
+
+    /** Return the successor table: entry S is next(S).  The result
+     *  must not be modified. */
+    int[] nextTable() {
+        return _next;
+    }
+
+    /** Return the state N steps after S. */
+    int stateAt(int s, long n) {
+        while (n > 0 && _tail[s] > 0) {
+            s = _next[s];
+            n -= 1;
+        }
+        int start = _cycleStart[s];
+        long offset = _entry[s] - start + n;
+        return _cycle[start + (int) (offset % _cycleLength[s])];
+    }
+
+    /** Return the length of the cycle eventually entered from S. */
+    int period(int s) {
+        return _cycleLength[s];
+    }
+
+    /** Return the state with leftmost, middle and rightmost settings L,
+     *  M and R. */
+    static int state(int l, int m, int r) {
+        return (l * ALPHABET_SIZE + m) * ALPHABET_SIZE + r;
+    }
+
+    /** Return the leftmost rotor's setting in state S. */
+    static int left(int s) {
+        return s / (ALPHABET_SIZE * ALPHABET_SIZE);
+    }
+
+    /** Return the middle rotor's setting in state S. */
+    static int middle(int s) {
+        return s / ALPHABET_SIZE % ALPHABET_SIZE;
+    }
+
+    /** Return the rightmost rotor's setting in state S. */
+    static int right(int s) {
+        return s % ALPHABET_SIZE;
+    }
+
+    /** Schedules created so far, keyed by their notch sets. */
+    private static final ConcurrentHashMap<Long, SteppingSchedule>
+        SCHEDULES = new ConcurrentHashMap<>();
+
+    /** Successor of each state. */
+    private final int[] _next;
+
+    /** Number of steps from each state to the first state on a
+     *  cycle. */
+    private final int[] _tail;
+
+    /** The states on cycles, each cycle contiguous and in order. */
+    private final int[] _cycle;
+
+    /** For a state on a cycle, its index in _cycle; otherwise, that of
+     *  the first cycle state reached from it. */
+    private final int[] _entry;
+
+    /** Index in _cycle of the start of the cycle reached from each
+     *  state. */
+    private final int[] _cycleStart;
+
+    /** Length of the cycle reached from each state. */
+    private final int[] _cycleLength;
+}
@@ -0,0 +1,260 @@
+package enigma;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/** Converts enigma input of unbounded size in fixed-size chunks.  Input
+ *  has the same form as for enigma.Main: configuration lines, each
+ *  followed by any number of message lines.  The converted messages are
+ *  written in groups of five letters, one output line per message line,
+ *  exactly as by Main, but without ever holding more than one chunk of
+ *  input and one chunk of output (plus the text of a single
+ *  configuration line).  The time spent on each chunk, configuration
+ *  line and write is recorded in Metrics.
+ *  @author Charles Lee
+ */
+class StreamConverter {
+
+    /** Default size of my input and output chunks, in bytes. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Number of letters in an output group. */
+    static final int GROUP_SIZE = 5;
+
+    /** A StreamConverter that converts with M and writes to OUT, using
+     *  chunks of BUFFER_SIZE bytes. */
+    StreamConverter(Machine m, OutputStream out) {
+        this(m, out, BUFFER_SIZE);
+    }
+
+    /** A StreamConverter that converts with M and writes to OUT, using
+     *  chunks of SIZE bytes. */
+    StreamConverter(Machine m, OutputStream out, int size) {
+        _machine = m;
+        _out = out;
+        _outBuffer = new byte[size];
+        _inBuffer = new byte[size];
+        _atLineStart = true;
+    }
+
+    /** Return true iff I have seen a configuration line. */
+    boolean isConfigured() {
+        return _configured;
+    }
+
+    /** Convert all of IN, and finish.  If the input is erroneous, the
+     *  output for the input before the error is written and flushed
+     *  before IOException is thrown. */
+    void convert(InputStream in) throws IOException {
+        try {
+            while (true) {
+                int n = in.read(_inBuffer);
+                if (n < 0) {
+                    break;
+                }
+                process(_inBuffer, 0, n);
+            }
+            finish();
+        } catch (IOException excp) {
+            flush();
+            _out.flush();
+            throw excp;
+        }
+    }
+
+    /** Process the LEN bytes of input at BUF[OFF ..].  Output may be
+     *  held back until my buffer fills or I finish. */
+    void process(byte[] buf, int off, int len) throws IOException {
+        long start = Metrics.now();
+        int letters = _letters;
+        for (int i = off; i < off + len; i += 1) {
+            consume(buf[i]);
+        }
+        recordChunk(start, letters);
+    }
+
+    /** Process the bytes of input remaining in BUF, leaving it with no
+     *  bytes remaining.  Output may be held back until my buffer fills
+     *  or I finish. */
+    void process(ByteBuffer buf) throws IOException {
+        long start = Metrics.now();
+        int letters = _letters;
+        while (buf.hasRemaining()) {
+            consume(buf.get());
+        }
+        recordChunk(start, letters);
+    }
+
+    /** Record in Metrics a chunk of input whose processing started at
+     *  START, when I had converted LETTERS letters. */
+    private void recordChunk(long start, int letters) {
+        PROCESS.recordSince(start);
+        LineConverter.LETTERS.addIfEnabled(_letters - letters);
+    }
+
+    /** Process the input byte C.  A line ends with '\n', '\r' or
+     *  "\r\n", as for LineConverter. */
+    private void consume(int c) throws IOException {
+        if (c == '\n' && _afterCR) {
+            _afterCR = false;
+            return;
+        }
+        _afterCR = c == '\r';
+        consumeChar(_afterCR ? '\n' : c);
+    }
+
+    /** Process C, a byte of input in which each line ends with '\n'. */
+    private void consumeChar(int c) throws IOException {
+        if (_config != null) {
+            if (c == '\n') {
+                endConfigLine();
+            } else {
+                _config.append((char) (c & 0xff));
+            }
+            return;
+        }
+        if (c == '\n') {
+            endMessageLine();
+            return;
+        }
+        if (_atLineStart && c == '*') {
+            _config = new StringBuilder();
+            _config.append('*');
+            _atLineStart = false;
+            return;
+        }
+        _atLineStart = false;
+        if ('a' <= c && c <= 'z') {
+            c -= 'a' - 'A';
+        }
+        if ('A' <= c && c <= 'Z') {
+            letter(c);
+        }
+    }
+
+    /** Finish any partial last line and write all pending output. */
+    void finish() throws IOException {
+        if (_config != null) {
+            endConfigLine();
+        } else if (!_atLineStart) {
+            endMessageLine();
+        }
+        flush();
+        _out.flush();
+    }
+
+    /** Convert and emit the upper-case letter C. */
+    private void letter(int c) throws IOException {
+        if (!_configured) {
+            throw new IOException("message without a configuration");
+        }
+        if (_group == GROUP_SIZE) {
+            put(' ');
+            _group = 0;
+        }
+        put(Rotor.toLetter(_machine.convert(Rotor.toIndex((char) c))));
+        _group += 1;
+        _letters += 1;
+    }
+
+    /** End the current message line. */
+    private void endMessageLine() throws IOException {
+        if (!_configured) {
+            throw new IOException("message without a configuration");
+        }
+        for (int i = 0; i < NEWLINE.length; i += 1) {
+            put(NEWLINE[i]);
+        }
+        _group = 0;
+        _atLineStart = true;
+    }
+
+    /** End the line starting with '*' that I have been collecting,
+     *  either configuring my machine with it or treating it as a
+     *  message line.  A line that starts as a configuration line but is
+     *  not a valid one is an error, signaled by IOException. */
+    private void endConfigLine() throws IOException {
+        long start = Metrics.now();
+        String line = _config.toString();
+        _config = null;
+        boolean valid;
+        try {
+            valid = Main.checkConfigurationLine(line);
+        } catch (IllegalArgumentException excp) {
+            throw new IOException("bad configuration line");
+        }
+        if (valid) {
+            Main.configure(_machine, line);
+            _configured = true;
+            _atLineStart = true;
+            LineConverter.CONFIGURE.recordSince(start);
+        } else {
+            byte[] text = line.getBytes();
+            _atLineStart = false;
+            for (int i = 0; i < text.length; i += 1) {
+                consumeChar(text[i]);
+            }
+            endMessageLine();
+        }
+    }
+
+    /** Append C to my output. */
+    private void put(int c) throws IOException {
+        if (_count == _outBuffer.length) {
+            flush();
+        }
+        _outBuffer[_count] = (byte) c;
+        _count += 1;
+    }
+
+    /** Write out my buffered output. */
+    private void flush() throws IOException {
+        long start = Metrics.now();
+        _out.write(_outBuffer, 0, _count);
+        _count = 0;
+        LineConverter.WRITE.recordSince(start);
+    }
+
+    /** Nanoseconds taken to process each chunk of input, including
+     *  converting its letters and any writes of full output chunks. */
+    static final Metrics.Histogram PROCESS = Metrics.histogram("process");
+
+    /** The line terminator written after each message line. */
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes();
+
+    /** The machine doing the conversion. */
+    private final Machine _machine;
+
+    /** Destination of my output. */
+    private final OutputStream _out;
+
+    /** Output not yet written to _out. */
+    private final byte[] _outBuffer;
+
+    /** Number of bytes in _outBuffer. */
+    private int _count;
+
+    /** Buffer used by convert to read input. */
+    private final byte[] _inBuffer;
+
+    /** Text of the line starting with '*' currently being read, or null
+     *  if not reading such a line. */
+    private StringBuilder _config;
+
+    /** True iff nothing has been read on the current line. */
+    private boolean _atLineStart;
+
+    /** True iff the last byte of input was '\r'. */
+    private boolean _afterCR;
+
+    /** True iff a configuration line has been seen. */
+    private boolean _configured;
+
+    /** Number of letters in the last output group of this line. */
+    private int _group;
+
+    /** Number of letters converted. */
+    private int _letters;
+}
@@ -1,5 +1,26 @@
 package enigma;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/** Ad hoc checks of the enigma package.  Run with "make check-units".
+ *  @author Charles Lee
+ */
 class Tests {
 	static final String[][] ROTOR_SPECS = {
         { "I", "EKMFLGDQVZNTOWYHXUSPAIBRCJ", "UWYGADFPVZBECKMTHXSLRINQOJ",
@@ -27,8 +48,990 @@ class Tests {
 
 
 	public static void main(String[] args) {
-		String test = "I LOVE TO EAT PANCAKES AND wafuls.()*@%";
-		String pattern = "[a-z A-Z]*";
-		System.out.println(test.matches(pattern));
+        checkBlockConverter();
+        checkSteppingSchedule();
+        checkCache();
+        checkParallelConverter();
+        checkBatchConverter();
+        checkCribSearch();
+        checkRotorCatalog();
+        checkBombe();
+        checkAlphabets();
+        checkServer();
+        checkLineConverter();
+        checkMappedConverter();
+        checkHillClimb();
+        checkSnapshot();
+        checkMetrics();
+        checkConfigurationParser();
+    }
+
+    /** Number of random messages used by each check. */
+    static final int TRIALS = 200;
+
+    /** Exit with code 1 after printing MSG unless COND. */
+    static void check(boolean cond, String msg) {
+        if (!cond) {
+            System.err.println("FAILED: " + msg);
+            System.exit(1);
+        }
+    }
+
+    /** Return a random valid configuration line, using RANDOM. */
+    static String randomConfiguration(Random random) {
+        String[] rotors = { "I", "II", "III", "IV", "V", "VI", "VII",
+                            "VIII" };
+        StringBuilder result = new StringBuilder("* ");
+        result.append(random.nextBoolean() ? "B" : "C");
+        result.append(random.nextBoolean() ? " BETA" : " GAMMA");
+        int[] order = random.ints(0, rotors.length).distinct().limit(3)
+            .toArray();
+        for (int k : order) {
+            result.append(' ').append(rotors[k]);
+        }
+        result.append(' ');
+        for (int i = 0; i < 4; i += 1) {
+            result.append(Rotor.toLetter(random.nextInt(Rotor.ALPHABET_SIZE)));
+        }
+        return result.toString();
+    }
+
+    /** Return N random upper-case letters, using RANDOM. */
+    static String randomLetters(Random random, int n) {
+        char[] result = new char[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = Rotor.toLetter(random.nextInt(Rotor.ALPHABET_SIZE));
+        }
+        return new String(result);
+    }
+
+    /** Return the settings of rotors 1-4 of M, read as a
+     *  base-ALPHABET_SIZE number. */
+    static int rotorSettings(Machine m) {
+        int result = 0;
+        for (int k = 1; k < m.getRotors().length; k += 1) {
+            result = result * Rotor.ALPHABET_SIZE
+                + m.getRotors()[k].getSetting();
+        }
+        return result;
+    }
+
+    /** Return a random valid configuration line, using RANDOM, with
+     *  ring settings and plugboard pairs in some cases. */
+    static String randomConfigurationLine(Random random) {
+        StringBuilder line = new StringBuilder(randomConfiguration(random));
+        if (random.nextBoolean()) {
+            line.append(' ').append(randomLetters(random, 4));
+        }
+        int[] letters = random.ints(0, Rotor.ALPHABET_SIZE).distinct()
+            .limit(2 * random.nextInt(Configuration.MAX_PAIRS + 1))
+            .toArray();
+        for (int i = 0; i < letters.length; i += 2) {
+            line.append(' ').append(Rotor.toLetter(letters[i]))
+                .append(Rotor.toLetter(letters[i + 1]));
+        }
+        return line.toString();
+    }
+
+    /** Check that BlockConverter.create() converts random messages as
+     *  Machine.convert does and leaves the rotors in the same state. */
+    static void checkBlockConverter() {
+        Random random = new Random(61);
+        BlockConverter block = BlockConverter.create();
+        for (int t = 0; t < TRIALS; t += 1) {
+            String config = randomConfiguration(random);
+            String msg = randomLetters(random, random.nextInt(5000));
+            Machine m1 = new Machine(), m2 = new Machine();
+            Main.configure(m1, config);
+            Main.configure(m2, config);
+            check(m1.convert(msg).equals(block.convert(m2, msg))
+                  && m1.convert("ENIGMA").equals(m2.convert("ENIGMA")),
+                  "block conversion differs for " + config);
+        }
+        System.out.printf("BlockConverter (%s): OK%n",
+                          block.isVectorized() ? "vector" : "scalar");
+    }
+
+    /** Check that SteppingSchedule.stateAt agrees with repeated
+     *  stepping, and that Machine.advance and the scheduled
+     *  Machine.convert agree with letter-at-a-time conversion. */
+    static void checkSteppingSchedule() {
+        Random random = new Random(62);
+        for (int t = 0; t < TRIALS; t += 1) {
+            String config = randomConfiguration(random);
+            Machine m1 = new Machine(), m2 = new Machine();
+            Main.configure(m1, config);
+            Main.configure(m2, config);
+            SteppingSchedule schedule = m1.getSchedule();
+            int s0 = random.nextInt(SteppingSchedule.STATES);
+            int n = random.nextInt(3 * SteppingSchedule.STATES);
+            int s = s0;
+            for (int i = 0; i < n; i += 1) {
+                s = schedule.next(s);
+            }
+            check(schedule.stateAt(s0, n) == s,
+                  "stateAt differs for " + config);
+
+            String msg = randomLetters(random, random.nextInt(5000));
+            m2.setCaching(true);
+            check(m1.convert(msg).equals(m2.convert(msg))
+                  && m1.getState() == m2.getState(),
+                  "scheduled conversion differs for " + config);
+            m1.advance(n);
+            m2.convert(randomLetters(random, n));
+            check(m1.getState() == m2.getState(),
+                  "advance differs for " + config);
+        }
+        System.out.println("SteppingSchedule: OK");
+    }
+
+    /** Check that a caching machine converts random messages as one that
+     *  does not cache; that its miss count grows by the number of
+     *  settings not yet seen and its hit count by the rest of the
+     *  letters; and that changing its ring settings or plugboard
+     *  discards the cache without resetting the counts. */
+    static void checkCache() {
+        Random random = new Random(69);
+        for (int t = 0; t < TRIALS; t += 1) {
+            String config = randomConfigurationLine(random);
+            String msg = randomLetters(random, random.nextInt(2000));
+            Machine m1 = new Machine(), m2 = new Machine();
+            m2.setCaching(true);
+            long misses = 0;
+            for (int pass = 0; pass < 4; pass += 1) {
+                Main.configure(m1, config);
+                Main.configure(m2, config);
+                if (pass == 2) {
+                    int[] rings = random.ints(4, 0, Rotor.ALPHABET_SIZE)
+                        .toArray();
+                    rings[3] = (m1.getRotors()[4].getRing() + 1)
+                        % Rotor.ALPHABET_SIZE;
+                    m1.setRings(rings);
+                    m2.setRings(rings);
+                } else if (pass == 3) {
+                    int[] plugboard = new int[Rotor.ALPHABET_SIZE];
+                    for (int p = 0; p < plugboard.length; p += 1) {
+                        plugboard[p] = p;
+                    }
+                    int a = random.nextInt(Rotor.ALPHABET_SIZE),
+                        b = (a + 1 + random.nextInt(Rotor.ALPHABET_SIZE - 1))
+                            % Rotor.ALPHABET_SIZE;
+                    plugboard[a] = b;
+                    plugboard[b] = a;
+                    if (Arrays.equals(plugboard, m1.getPlugboard())) {
+                        plugboard = null;
+                    }
+                    m1.setPlugboard(plugboard);
+                    m2.setPlugboard(plugboard);
+                }
+                StringBuilder expected = new StringBuilder();
+                HashSet<Integer> settings = new HashSet<>();
+                for (int i = 0; i < msg.length(); i += 1) {
+                    expected.append(m1.convert(msg.substring(i, i + 1)));
+                    settings.add(rotorSettings(m1));
+                }
+                if (pass != 1) {
+                    misses += settings.size();
+                }
+                check(m2.convert(msg).equals(expected.toString()),
+                      "cached conversion differs for " + config);
+                check(m2.cacheMisses() == misses
+                      && m2.cacheHits() == (pass + 1) * msg.length() - misses,
+                      "wrong cache counts for " + config);
+            }
+        }
+        System.out.println("Cache: OK");
+    }
+
+    /** Check that ParallelConverter converts random long messages as
+     *  Machine.convert does and leaves the rotors in the same state,
+     *  with chunks of sizes that end just before, at and just after
+     *  the points where the middle rotor steps or double-steps. */
+    static void checkParallelConverter() {
+        Random random = new Random(70);
+        int[] sizes = { 1, 7, 25, 26, 27, 649, 650, 651, 676, 677 };
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int t = 0; t < TRIALS; t += 1) {
+                String config = randomConfigurationLine(random);
+                String msg = randomLetters(random, random.nextInt(20000));
+                int size = t % 4 == 0 ? 1 + random.nextInt(5000)
+                    : sizes[random.nextInt(sizes.length)];
+                Machine m1 = new Machine(), m2 = new Machine();
+                Main.configure(m1, config);
+                Main.configure(m2, config);
+                ParallelConverter parallel = new ParallelConverter(pool, size);
+                check(m1.convert(msg).equals(parallel.convert(m2, msg))
+                      && rotorSettings(m1) == rotorSettings(m2)
+                      && m1.convert("ENIGMA").equals(m2.convert("ENIGMA")),
+                      "parallel conversion differs for " + config
+                      + " in chunks of " + size);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println("ParallelConverter: OK");
+    }
+
+    /** Check that BatchConverter converts batches of random messages,
+     *  one at a time and concurrently, as machines built for each
+     *  message alone do, while reusing machines across messages whose
+     *  configurations choose the same rotors but differ in their
+     *  settings, ring settings and plugboards. */
+    static void checkBatchConverter() {
+        Random random = new Random(71);
+        String[] selections = new String[3];
+        for (int k = 0; k < selections.length; k += 1) {
+            String config = randomConfiguration(random);
+            selections[k] = config.substring(0, config.lastIndexOf(' '));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int concurrent = 0; concurrent < 2; concurrent += 1) {
+                MachinePool machines = new MachinePool();
+                BatchConverter batch = new BatchConverter(machines, pool);
+                int count = 0;
+                for (int round = 0; round < 5; round += 1) {
+                    ArrayList<BatchConverter.Message> msgs =
+                        new ArrayList<>();
+                    ArrayList<String> expected = new ArrayList<>();
+                    for (int t = 0; t < TRIALS; t += 1) {
+                        String[] fields =
+                            randomConfigurationLine(random).split(" ");
+                        String line =
+                            selections[random.nextInt(selections.length)]
+                            + " " + String.join(" ", Arrays.copyOfRange(
+                                fields, Configuration.NUM_ROTORS + 1,
+                                fields.length));
+                        String text = randomLetters(random,
+                                                    random.nextInt(500));
+                        Configuration config = Configuration.parse(line);
+                        msgs.add(new BatchConverter.Message(config, text));
+                        expected.add(config.machine().convert(text));
+                    }
+                    List<String> actual;
+                    if (concurrent == 1) {
+                        actual = batch.convertAll(msgs);
+                    } else {
+                        actual = new ArrayList<>();
+                        for (BatchConverter.Message msg : msgs) {
+                            actual.add(batch.convert(msg));
+                        }
+                    }
+                    check(expected.equals(actual),
+                          "batch conversion differs");
+                    count += msgs.size();
+                }
+                check(batch.messages() == count,
+                      "wrong number of messages counted");
+                check(machines.created() <= selections.length
+                      * (concurrent == 1 ? pool.getParallelism() + 1 : 1),
+                      machines.created() + " machines built for "
+                      + selections.length + " rotor selections");
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println("BatchConverter: OK");
+    }
+
+    /** Return a catalog holding the entries of RotorCatalog.STANDARD
+     *  named NAMES. */
+    static RotorCatalog catalog(String... names) {
+        RotorCatalog result = new RotorCatalog();
+        for (String name : names) {
+            for (String[] spec : PermutationData.ROTOR_SPECS) {
+                if (spec[0].equals(name)) {
+                    result.register(RotorCatalog.STANDARD.kind(
+                                        RotorCatalog.STANDARD.index(name)),
+                                    name, spec[1],
+                                    spec.length > 3 ? spec[3] : "");
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the configuration lines of CONFIGS. */
+    static List<String> configurationLines(List<Configuration> configs) {
+        ArrayList<String> result = new ArrayList<>();
+        for (Configuration config : configs) {
+            result.add(config.toString());
+        }
+        return result;
+    }
+
+    /** Check that CribSearch, trying every setting of the rotors with
+     *  which a random message was enciphered, reports the setting
+     *  used, and that, over a catalog small enough to search in
+     *  full, it tries every configuration and reports the same
+     *  one. */
+    static void checkCribSearch() {
+        Random random = new Random(72);
+        String config = "* B BETA II I III " + randomLetters(random, 4);
+        String plain = randomLetters(random, 100);
+        Machine m = new Machine();
+        Main.configure(m, config);
+        String cipher = m.convert(plain);
+        int offset = 30;
+        String crib = plain.substring(offset, offset + 12);
+        check(CribSearch.possibleOffsets(cipher, crib).contains(offset),
+              "crib placement rejected");
+        CribSearch search = new CribSearch(cipher, crib, offset);
+        ArrayList<Configuration> matches = new ArrayList<>();
+        search.search(new String[] { "B", "BETA", "II", "I", "III" },
+                      matches);
+        List<String> found = configurationLines(matches);
+        check(found.contains(config), "crib search found " + found
+              + " not " + config);
+        check(search.tried() == Machine.STATES,
+              "crib search tried " + search.tried() + " of "
+              + Machine.STATES + " settings");
+        RotorCatalog current = RotorCatalog.current();
+        RotorCatalog.setCurrent(catalog("B", "BETA", "I", "II", "III"));
+        try {
+            search = new CribSearch(cipher, crib, offset);
+            found = configurationLines(
+                search.search(ForkJoinPool.commonPool()));
+            check(found.contains(config), "crib search found " + found
+                  + " not " + config);
+            check(search.tried() == search.candidates(),
+                  "crib search tried " + search.tried() + " of "
+                  + search.candidates() + " configurations");
+        } finally {
+            RotorCatalog.setCurrent(current);
+        }
+        System.out.println("CribSearch: OK");
+    }
+
+    /** Check that RotorCatalog.read, and enigma.Main with --rotors, add
+     *  the entries of a valid catalog file to the standard ones, and
+     *  that read rejects lines with bad wiring, a reflector that is not
+     *  its own inverse or a bad notch, giving the line number. */
+    static void checkRotorCatalog() {
+        String rotorI = PermutationData.ROTOR_SPECS[0][1],
+            reflectorB = "ENKQAUYWJICOPBLMDXZVFTHRGS";
+        String valid = "# Rotor I and reflector B under other names\n\n"
+            + "ROTOR ONE " + rotorI + " Q\n"
+            + "  REFLECTOR BEE\t" + reflectorB + "\n";
+        RotorCatalog current = RotorCatalog.current();
+        try {
+            RotorCatalog catalog = RotorCatalog.read(
+                RotorCatalog.STANDARD, new StringReader(valid));
+            check(catalog.isA("ONE", RotorCatalog.Kind.ROTOR)
+                  && catalog.isA("BEE", RotorCatalog.Kind.REFLECTOR)
+                  && catalog.isA("I", RotorCatalog.Kind.ROTOR),
+                  "rotor catalog entries missing");
+            RotorCatalog.setCurrent(catalog);
+            String msg = randomLetters(new Random(74), 2000);
+            Machine m1 = new Machine(), m2 = new Machine();
+            Main.configure(m1, "* BEE BETA III IV ONE AXLE");
+            Main.configure(m2, Configuration.SAMPLE);
+            check(m1.convert(msg).equals(m2.convert(msg)),
+                  "catalog rotors convert differently");
+        } catch (IOException excp) {
+            check(false, "valid rotor catalog rejected: " + excp);
+        } finally {
+            RotorCatalog.setCurrent(current);
+        }
+        String[] invalid = {
+            "ROTOR BAD A" + rotorI.substring(1),
+            "ROTOR BAD " + rotorI.substring(1),
+            "REFLECTOR BAD " + rotorI,
+            "ROTOR BAD " + rotorI + " Q1",
+            "FIXED BAD " + rotorI + " Q",
+        };
+        for (String line : invalid) {
+            try {
+                RotorCatalog.read(RotorCatalog.STANDARD, new StringReader(
+                                      valid + line + "\n"));
+                check(false, "bad rotor catalog line accepted: " + line);
+            } catch (IOException excp) {
+                check(excp.getMessage().contains("line 5"),
+                      "wrong error for " + line + ": " + excp.getMessage());
+            }
+        }
+        try {
+            Path rotors = Files.createTempFile("enigma", ".rotors"),
+                in = Files.createTempFile("enigma", ".in"),
+                out = Files.createTempFile("enigma", ".out");
+            try {
+                Files.write(rotors, valid.getBytes(
+                                StandardCharsets.ISO_8859_1));
+                Files.write(in, "* BEE BETA III IV ONE AXLE\nHELLO WORLD\n"
+                            .getBytes(StandardCharsets.ISO_8859_1));
+                Main.main(new String[] {
+                        "--rotors", rotors.toString(),
+                        "--map", in.toString(), out.toString() });
+                check(new String(Files.readAllBytes(out),
+                                 StandardCharsets.ISO_8859_1)
+                      .equals("FHVGJ ZUKSG" + System.lineSeparator()),
+                      "wrong output with --rotors");
+            } finally {
+                RotorCatalog.setCurrent(current);
+                Files.delete(rotors);
+                Files.delete(in);
+                Files.delete(out);
+            }
+        } catch (IOException excp) {
+            check(false, "conversion with --rotors failed: " + excp);
+        }
+        System.out.println("RotorCatalog: OK");
+    }
+
+    /** Check that a Bombe, run on the drum bank with the rotors of a
+     *  random message enciphered with plugboard pairs, stops at the
+     *  message's initial setting and keeps the central letter's true
+     *  plugboard partner among the possible ones. */
+    static void checkBombe() {
+        Random random = new Random(73);
+        String[] names = { "B", "BETA", "III", "IV", "I" };
+        String config = "* " + String.join(" ", names) + " "
+            + randomLetters(random, 4);
+        String plain = randomLetters(random, 200);
+        Machine m = new Machine();
+        Main.configure(m, config + " AM FI NV PS TU WZ");
+        String cipher = m.convert(plain);
+        int length = 40, offset = 0;
+        while (!new CribSearch(cipher, plain.substring(offset,
+                                                       offset + length),
+                               offset).placementPossible()) {
+            offset += 1;
+        }
+        Bombe bombe = new Bombe(cipher, plain.substring(offset,
+                                                        offset + length),
+                                offset);
+        char partner = Rotor.toLetter(
+            m.getPlugboard()[Rotor.toIndex(bombe.central())]);
+        boolean found = false;
+        for (Bombe.Stop stop : bombe.run(names)) {
+            if (stop.config().toString().equals(config)) {
+                found = stop.partners().indexOf(partner) >= 0;
+            }
+        }
+        check(found, "bombe did not stop at " + config + " with "
+              + bombe.central() + "=" + partner);
+        check(bombe.tested() == Machine.STATES,
+              "bombe tested " + bombe.tested() + " settings");
+        System.out.println("Bombe: OK");
+    }
+
+    /** Return a machine configured by CONFIG with rotors from
+     *  CATALOG. */
+    static Machine machine(RotorCatalog catalog, String config) {
+        RotorCatalog current = RotorCatalog.current();
+        RotorCatalog.setCurrent(catalog);
+        try {
+            Machine m = new Machine();
+            Main.configure(m, config);
+            return m;
+        } finally {
+            RotorCatalog.setCurrent(current);
+        }
+    }
+
+    /** Check that rotors over alphabets other than Alphabet.UPPER
+     *  convert reciprocally and never to the same symbol, and that the
+     *  general conversion agrees with the specialized one on a copy of
+     *  Alphabet.UPPER. */
+    static void checkAlphabets() {
+        Random random = new Random(63);
+        Alphabet upper = new Alphabet(Alphabet.UPPER.symbols());
+        for (int t = 0; t < TRIALS; t += 1) {
+            String config = randomConfiguration(random);
+            long seed = random.nextLong();
+            Machine m1 = machine(RotorCatalog.random(Alphabet.UPPER,
+                                                     new Random(seed)),
+                                 config),
+                m2 = machine(RotorCatalog.random(upper, new Random(seed)),
+                             config);
+            check(m1.getSchedule() != null && m2.getSchedule() == null,
+                  "wrong stepping for " + config);
+            String msg = randomLetters(random, random.nextInt(2000));
+            check(m1.convert(msg).equals(m2.convert(msg)),
+                  "general conversion differs for " + config);
+
+            for (Alphabet alphabet
+                     : new Alphabet[] { Alphabet.BASE64, Alphabet.BYTES }) {
+                RotorCatalog catalog = RotorCatalog.random(alphabet,
+                                                           new Random(seed));
+                byte[] plain = new byte[random.nextInt(2000)];
+                random.nextBytes(plain);
+                byte[] cipher = plain.clone();
+                machine(catalog, config).convert(cipher, 0, cipher.length);
+                byte[] text = cipher.clone();
+                machine(catalog, config).convert(text, 0, text.length);
+                check(Arrays.equals(plain, text),
+                      "conversion not reciprocal for " + config);
+                for (int i = 0; i < plain.length; i += 1) {
+                    check(plain[i] != cipher[i]
+                          || !alphabet.contains((char) (plain[i] & 0xff)),
+                          "symbol converted to itself for " + config);
+                }
+            }
+        }
+        System.out.println("Alphabets: OK");
+    }
+
+    /** Check that a Server answers requests, including erroneous ones,
+     *  overlong lines, a last line without a terminator and requests
+     *  for rotors whose state cannot be snapshot, in order and as
+     *  Machine.convert does, and that it keeps serving after a client
+     *  resets its connection. */
+    static void checkServer() {
+        Random random = new Random(64);
+        RotorCatalog standard = RotorCatalog.current(),
+            wide = wideCatalog();
+        RotorCatalog.setCurrent(wide);
+        Thread serving;
+        try (Server server = new Server(0, ForkJoinPool.commonPool())) {
+            serving = new Thread(() -> {
+                try {
+                    server.run();
+                } catch (IOException excp) {
+                    check(false, "server failed: " + excp);
+                }
+            });
+            serving.start();
+            StringBuilder input = new StringBuilder();
+            ArrayList<String> expected = new ArrayList<>();
+            String config = "* B BETA I II EXTRA63 AAAA";
+            input.append(config).append('\n');
+            for (int k = 0; k < 2; k += 1) {
+                String msg = randomLetters(random, 50);
+                input.append(msg).append('\n');
+                String cipher = machine(wide, config).convert(msg);
+                expected.add(new String(Server.format(cipher),
+                                        StandardCharsets.ISO_8859_1)
+                             .trim());
+            }
+            for (int t = 0; t < TRIALS; t += 1) {
+                config = randomConfiguration(random);
+                String msg = randomLetters(random, random.nextInt(200));
+                Machine m = new Machine();
+                Main.configure(m, config);
+                input.append(config).append('\n');
+                input.append(msg.toLowerCase()).append('\n');
+                expected.add(new String(Server.format(m.convert(msg)),
+                                        StandardCharsets.ISO_8859_1)
+                             .trim());
+            }
+            Machine m = new Machine();
+            Main.configure(m, config);
+            String hello = new String(Server.format(m.convert("HELLO")),
+                                      StandardCharsets.ISO_8859_1).trim();
+            input.append("12345\n* B BETA I I\nHELLO\n");
+            expected.add("");
+            expected.add("? bad configuration");
+            expected.add(hello);
+            input.append(randomLetters(random, Server.MAX_LINE + 1));
+            input.append("\nHELLO");
+            expected.add("? line too long");
+            expected.add(hello);
+            byte[] request =
+                input.toString().getBytes(StandardCharsets.ISO_8859_1);
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                            server.port())) {
+                socket.setSoLinger(true, 0);
+                socket.getOutputStream().write(request);
+            }
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                            server.port())) {
+                socket.getOutputStream().write(request);
+                socket.shutdownOutput();
+                BufferedReader answers = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(),
+                                          StandardCharsets.ISO_8859_1));
+                for (String answer : expected) {
+                    check(answer.equals(answers.readLine()),
+                          "wrong answer from server");
+                }
+                check(answers.readLine() == null,
+                      "wrong number of answers from server");
+            }
+        } catch (IOException excp) {
+            check(false, "server check failed: " + excp);
+            return;
+        } finally {
+            RotorCatalog.setCurrent(standard);
+        }
+        try {
+            serving.join();
+        } catch (InterruptedException excp) {
+            check(false, "server check interrupted");
+        }
+        System.out.println("Server: OK");
+    }
+
+    /** Return random input for enigma.Main, using RANDOM: one to three
+     *  configuration lines, each followed by message lines with mixed
+     *  case, punctuation and digits.  Lines end with '\n', '\r' or
+     *  "\r\n". */
+    static String randomInput(Random random) {
+        String noise = " \t.,;!?-'\"0123456789_";
+        String[] ends = { "\n", "\r\n", "\r" };
+        StringBuilder input = new StringBuilder();
+        for (int k = random.nextInt(3) + 1; k > 0; k -= 1) {
+            input.append(randomConfiguration(random))
+                .append(ends[random.nextInt(ends.length)]);
+            for (int n = random.nextInt(10); n > 0; n -= 1) {
+                for (int i = random.nextInt(100); i > 0; i -= 1) {
+                    int c = random.nextInt(60);
+                    if (c < 26) {
+                        input.append(Rotor.toLetter(c));
+                    } else if (c < 52) {
+                        input.append((char) ('a' + c - 26));
+                    } else {
+                        input.append(noise.charAt(
+                            random.nextInt(noise.length())));
+                    }
+                }
+                input.append(ends[random.nextInt(ends.length)]);
+            }
+        }
+        return input.toString();
+    }
+
+    /** Check that LineConverter converts random input as StreamConverter
+     *  does with small chunks, and that both write the output for the
+     *  lines before an invalid configuration line before reporting
+     *  it. */
+    static void checkLineConverter() {
+        Random random = new Random(65);
+        for (int t = 0; t < TRIALS; t += 1) {
+            String input = randomInput(random);
+            byte[] bytes = input.getBytes(StandardCharsets.ISO_8859_1);
+            ByteArrayOutputStream out1 = new ByteArrayOutputStream(),
+                out2 = new ByteArrayOutputStream();
+            try {
+                new LineConverter(new Machine(), out1)
+                    .convert(new StringReader(input));
+                new StreamConverter(new Machine(), out2,
+                                    1 + random.nextInt(64))
+                    .convert(new ByteArrayInputStream(bytes));
+            } catch (IOException excp) {
+                check(false, "line conversion failed: " + excp);
+            }
+            check(Arrays.equals(out1.toByteArray(), out2.toByteArray()),
+                  "line conversion differs");
+        }
+        String input = "* B BETA III IV I AXLE\nHELLO WORLD\n"
+            + "* B BETA III IV XX AXLE\nHELLO\n";
+        String expected = "FHVGJ ZUKSG" + System.lineSeparator();
+        ByteArrayOutputStream out1 = new ByteArrayOutputStream(),
+            out2 = new ByteArrayOutputStream();
+        try {
+            new LineConverter(new Machine(), out1)
+                .convert(new StringReader(input));
+            check(false, "bad configuration accepted by LineConverter");
+        } catch (IOException excp) {
+            check(out1.toString().equals(expected),
+                  "LineConverter output lost before error");
+        }
+        try {
+            new StreamConverter(new Machine(), out2).convert(
+                new ByteArrayInputStream(input.getBytes(
+                    StandardCharsets.ISO_8859_1)));
+            check(false, "bad configuration accepted by StreamConverter");
+        } catch (IOException excp) {
+            check(out2.toString().equals(expected),
+                  "StreamConverter output lost before error");
+        }
+        System.out.println("LineConverter: OK");
+    }
+
+    /** Check that MappedConverter, with windows smaller than its input
+     *  and output files, writes the same bytes as LineConverter, and
+     *  that it replaces a longer output file and trims the file to what
+     *  it wrote. */
+    static void checkMappedConverter() {
+        Random random = new Random(73);
+        try {
+            Path in = Files.createTempFile("enigma", ".in"),
+                out = Files.createTempFile("enigma", ".out");
+            try {
+                for (int t = 0; t < TRIALS / 10; t += 1) {
+                    String input = randomInput(random);
+                    ByteArrayOutputStream expected =
+                        new ByteArrayOutputStream();
+                    new LineConverter(new Machine(), expected)
+                        .convert(new StringReader(input));
+                    Files.write(in, input.getBytes(
+                                    StandardCharsets.ISO_8859_1));
+                    Files.write(out, new byte[expected.size() + 100]);
+                    long window = 1 + random.nextInt(200);
+                    MappedConverter.convert(new Machine(), in, out, window);
+                    check(Arrays.equals(expected.toByteArray(),
+                                        Files.readAllBytes(out)),
+                          "mapped conversion differs in windows of "
+                          + window);
+                }
+            } finally {
+                Files.delete(in);
+                Files.delete(out);
+            }
+        } catch (IOException excp) {
+            check(false, "mapped conversion failed: " + excp);
+        }
+        System.out.println("MappedConverter: OK");
+    }
+
+    /** English text from which a bigram table is compiled. */
+    static final String TRAINING_TEXT =
+        "It was the best of times and the worst of times, and the people "
+        + "of the town went about their business as they always had. "
+        + "There were markets in the morning and long evenings by the "
+        + "fire, and nobody thought that anything would change. The "
+        + "children walked to the school on the hill, where the teacher "
+        + "read to them from old books about the sea and the ships that "
+        + "had sailed from the harbor long before their grandparents "
+        + "were born. In the afternoon the men came back from the fields "
+        + "and the women brought bread and cheese and apples from the "
+        + "cellar, and in the summer they sat outside until the stars "
+        + "came out over the river. When the winter came the roads were "
+        + "closed by snow for weeks at a time, and the letters that "
+        + "arrived from the city were read aloud in the kitchen of the "
+        + "inn, where everyone gathered to hear the news of the world. "
+        + "Most of it concerned people they would never meet and places "
+        + "they would never see, but they listened all the same, because "
+        + "it was good to know that there was more to the world than "
+        + "their own valley and the mountains around it.";
+
+    /** English text that is enciphered and then recovered. */
+    static final String PLAIN_TEXT =
+        "The meeting will take place on Tuesday at the old station near "
+        + "the bridge. Bring the maps and the list of names, and tell "
+        + "nobody where you are going. If the weather is bad we will "
+        + "wait for you at the inn until the evening train has left, and "
+        + "then we will return to the city by the northern road. Burn "
+        + "this letter when you have read it and do not write again "
+        + "until you hear from me.";
+
+    /** Check that HillClimb recovers the initial settings, the
+     *  plugboard pairs and most of the plaintext of an English message
+     *  enciphered with plugboard pairs, given its rotors. */
+    static void checkHillClimb() {
+        String plain = Main.standardize(PLAIN_TEXT);
+        String config = "* B BETA III IV I AXLE AM FI NV PS";
+        Machine m = new Machine();
+        Main.configure(m, config);
+        NgramTable bigrams = null;
+        try {
+            bigrams = NgramTable.train(new StringReader(TRAINING_TEXT), 2);
+        } catch (IOException excp) {
+            check(false, "n-gram training failed: " + excp);
+        }
+        HillClimb climb = new HillClimb(m.convert(plain), bigrams);
+        HillClimb.Result result =
+            climb.search(new String[] { "B", "BETA", "III", "IV", "I" });
+        check(result.config().toString().equals(config),
+              "hill climbing found " + result.config());
+        int right = 0;
+        for (int i = 0; i < plain.length(); i += 1) {
+            if (plain.charAt(i) == result.text().charAt(i)) {
+                right += 1;
+            }
+        }
+        check(right >= plain.length() * 9 / 10,
+              "hill climbing recovered " + result.text());
+        System.out.printf("HillClimb: OK (%s)%n", result.config());
+    }
+
+    /** Check that restoring a snapshot taken in the middle of a message,
+     *  to the same machine or a copy, reproduces the rest of the
+     *  conversion, and that snapshots of other rotors are refused. */
+    static void checkSnapshot() {
+        Random random = new Random(66);
+        for (int t = 0; t < TRIALS; t += 1) {
+            String config = randomConfiguration(random);
+            Machine m = new Machine();
+            Main.configure(m, config);
+            m.setCaching(random.nextBoolean());
+            Machine copy = new Machine(m);
+            m.convert(randomLetters(random, random.nextInt(5000)));
+            long snapshot = m.snapshot();
+            int state = m.getState();
+            String rest = randomLetters(random, random.nextInt(5000));
+            String expected = m.convert(rest);
+            m.restore(snapshot);
+            check(m.getState() == state && m.snapshot() == snapshot,
+                  "restore differs for " + config);
+            check(m.convert(rest).equals(expected),
+                  "restored conversion differs for " + config);
+            copy.restore(snapshot);
+            check(copy.convert(rest).equals(expected),
+                  "restored copy differs for " + config);
+        }
+        Machine m1 = new Machine(), m2 = new Machine();
+        Main.configure(m1, "* B BETA I II III AAAA");
+        Main.configure(m2, "* B BETA I II IV AAAA");
+        try {
+            m2.restore(m1.snapshot());
+            check(false, "snapshot of other rotors restored");
+        } catch (IllegalArgumentException excp) {
+            /* Expected. */
+        }
+        char[] symbols = new char[300];
+        for (int i = 0; i < symbols.length; i += 1) {
+            symbols[i] = (char) (0x100 + i);
+        }
+        Machine m3 = machine(RotorCatalog.random(
+                                 new Alphabet(new String(symbols)), random),
+                             "* B BETA I II III AAAA"),
+            m4 = machine(wideCatalog(), "* B BETA I II EXTRA63 AAAA");
+        for (Machine m : new Machine[] { m3, m4 }) {
+            check(!m.canSnapshot(), "snapshot of too many symbols allowed");
+            try {
+                m.snapshot();
+                check(false, "snapshot of too many symbols taken");
+            } catch (IllegalStateException excp) {
+                /* Expected. */
+            }
+        }
+        System.out.println("Snapshot: OK");
+    }
+
+    /** Return a catalog with the entries of RotorCatalog.STANDARD and
+     *  then 64 copies of rotor I, named EXTRA0 to EXTRA63, whose
+     *  indices do not all fit in a snapshot. */
+    static RotorCatalog wideCatalog() {
+        RotorCatalog result = new RotorCatalog(RotorCatalog.STANDARD);
+        for (String[] spec : PermutationData.ROTOR_SPECS) {
+            if (spec[0].equals("I")) {
+                for (int k = 0; k < 1 << Machine.INDEX_BITS; k += 1) {
+                    result.register(RotorCatalog.Kind.ROTOR, "EXTRA" + k,
+                                    spec[1], spec[3]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Check that Metrics histograms count values concurrently and
+     *  report percentiles within the width of a bucket, that
+     *  LineConverter records its stages only while metrics are
+     *  enabled, and that StreamConverter records them too. */
+    static void checkMetrics() {
+        Random random = new Random(67);
+        Metrics.Histogram h = new Metrics.Histogram();
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i += 1) {
+            values[i] = (long) Math.exp(random.nextDouble() * 30);
+        }
+        ForkJoinPool.commonPool().submit(
+            () -> Arrays.stream(values).parallel().forEach(h::record))
+            .join();
+        Arrays.sort(values);
+        check(h.count() == values.length
+              && h.max() == values[values.length - 1],
+              "histogram count or maximum differs");
+        for (int p : new int[] { 1, 50, 90, 99, 100 }) {
+            long exact = LoadGenerator.percentile(values, p);
+            long reported = h.percentile(p);
+            check(reported >= exact && reported <= exact + exact / 15,
+                  "percentile " + p + " is " + reported + " not " + exact);
+        }
+
+        Machine m = new Machine();
+        Main.configure(m, Configuration.SAMPLE);
+        LineConverter lines =
+            new LineConverter(m, new ByteArrayOutputStream());
+        char[] line = "HELLO WORLD".toCharArray();
+        try {
+            long before = LineConverter.CONVERT.count(),
+                counted = LineConverter.LETTERS.sum();
+            lines.convertLine(line.clone(), line.length);
+            check(LineConverter.CONVERT.count() == before
+                  && LineConverter.LETTERS.sum() == counted,
+                  "disabled metrics recorded");
+            Metrics.setEnabled(true);
+            lines.convertLine(line.clone(), line.length);
+            check(LineConverter.CONVERT.count() == before + 1,
+                  "enabled metrics not recorded");
+            byte[] input = ("* B BETA I II III AAAA\nHELLO WORLD\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+            long chunks = StreamConverter.PROCESS.count(),
+                configs = LineConverter.CONFIGURE.count(),
+                letters = LineConverter.LETTERS.sum();
+            new StreamConverter(new Machine(), new ByteArrayOutputStream())
+                .convert(new ByteArrayInputStream(input));
+            check(StreamConverter.PROCESS.count() == chunks + 1
+                  && LineConverter.CONFIGURE.count() == configs + 1
+                  && LineConverter.LETTERS.sum() == letters + 10,
+                  "streamed metrics not recorded");
+        } catch (IOException excp) {
+            check(false, "conversion failed: " + excp);
+        } finally {
+            Metrics.setEnabled(false);
+        }
+        System.out.println("Metrics: OK");
+    }
+
+    /** Check that ConfigurationParser accepts and rejects the same
+     *  lines, among valid configuration lines and random mutations of
+     *  them, as Main.checkConfigurationLine followed by
+     *  Configuration.parse, and that the machines it configures
+     *  convert as those configured by Main.configure do. */
+    static void checkConfigurationParser() {
+        Random random = new Random(68);
+        ConfigurationParser parser = new ConfigurationParser();
+        Machine m2 = new Machine();
+        int accepted = 0;
+        for (int t = 0; t < 50 * TRIALS; t += 1) {
+            String line = randomConfigurationLine(random);
+            if (random.nextInt(3) > 0) {
+                line = mutate(random, line);
+            }
+            int expected;
+            try {
+                expected = Main.checkConfigurationLine(line) ? 1 : 0;
+                if (expected == 1) {
+                    Configuration.parse(line);
+                }
+            } catch (RuntimeException excp) {
+                expected = -1;
+            }
+            int actual;
+            try {
+                actual = parser.parse(line.toCharArray(), line.length())
+                    ? 1 : 0;
+            } catch (IllegalArgumentException excp) {
+                actual = -1;
+            }
+            check(actual == expected, "parser gives " + actual + " not "
+                  + expected + " for \"" + line + "\"");
+            if (actual == 1) {
+                accepted += 1;
+                Machine m1 = new Machine();
+                Main.configure(m1, line);
+                parser.configure(m2);
+                String msg = randomLetters(random, 200);
+                check(m1.convert(msg).equals(m2.convert(msg)),
+                      "parsed configuration differs for " + line);
+            }
+        }
+        check(accepted > TRIALS, "too few valid lines tried");
+        System.out.println("ConfigurationParser: OK");
+    }
+
+    /** Return LINE with one random change, using RANDOM. */
+    static String mutate(Random random, String line) {
+        String[] insertions = {
+            " ", "  ", "\t", "*", "A", "a", "I", "AB", "ZZ", "BETA", "B",
+            " AAAA", " AB", " A", ""
+        };
+        StringBuilder result = new StringBuilder(line);
+        int i = random.nextInt(line.length() + 1);
+        String s = insertions[random.nextInt(insertions.length)];
+        int change = random.nextInt(3);
+        if (change == 0) {
+            result.insert(i, s);
+        } else if (change == 1) {
+            result.delete(i, Math.min(line.length(),
+                                      i + 1 + random.nextInt(3)));
+        } else {
+            result.replace(i, Math.min(line.length(), i + 1), s);
+        }
+        return result.toString();
+    }
 }
-}
\ No newline at end of file
@@ -0,0 +1,52 @@
+package enigma;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/** A BlockConverter that converts as many letters at once as fit in the
+ *  platform's preferred integer vector, using gathers from the rotors'
+ *  conversion tables.  Requires the jdk.incubator.vector module, so it
+ *  is compiled and run with "--add-modules jdk.incubator.vector" (see
+ *  the Makefile); BlockConverter.create() falls back to the scalar
+ *  converter when it is unavailable.
+ *  @author Charles Lee
+ */
+class VectorConverter extends BlockConverter {
+
+    /** Vector shape used for letter indices. */
+    static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    void convertBlock(Rotor[] rotors, int[][] settings, int[] letters,
+                      int n) {
+        int bound = SPECIES.loopBound(n);
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            IntVector c = IntVector.fromArray(SPECIES, letters, i);
+            for (int k = rotors.length - 1; k >= 0; k -= 1) {
+                c = lookup(rotors[k].forwardTable(), settings[k], i, c);
+            }
+            for (int k = 1; k < rotors.length; k += 1) {
+                c = lookup(rotors[k].backwardTable(), settings[k], i, c);
+            }
+            c.intoArray(letters, i);
+        }
+        convertBlock(rotors, settings, letters, bound, n);
+    }
+
+    /** Return the vector whose Jth lane is TABLE[SETTINGS[I + J] + the Jth
+     *  lane of C]. */
+    private IntVector lookup(int[] table, int[] settings, int i,
+                             IntVector c) {
+        IntVector.fromArray(SPECIES, settings, i).add(c)
+            .intoArray(_index, 0);
+        return IntVector.fromArray(SPECIES, table, 0, _index, 0);
+    }
+
+    /** Gather indices for lookup. */
+    private final int[] _index = new int[SPECIES.length()];
+}
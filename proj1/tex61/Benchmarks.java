@@ -0,0 +1,393 @@
+package tex61;
+
+import java.io.BufferedWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/** Benchmarks for the text formatter.  Each benchmark is run for a
+ *  number of warm-up rounds and then for a number of measured rounds,
+ *  after which its average time and allocation per character of input
+ *  are printed.  The usage is
+ *
+ *      java tex61.Benchmarks [ PATTERN ]
+ *
+ *  where PATTERN, if present, is a regular expression selecting the
+ *  benchmarks to run by name.
+ *  @author Charles Lee
+ */
+class Benchmarks {
+
+    /** Number of unmeasured rounds of each benchmark. */
+    static final int WARMUP_ROUNDS = 3;
+
+    /** Number of measured rounds of each benchmark. */
+    static final int ROUNDS = 3;
+
+    /** Minimum number of nanoseconds in a round.  Operations are
+     *  repeated within a round until it lasts at least this long. */
+    static final long MIN_ROUND_NANOS = 200_000_000L;
+
+    /** One megabyte. */
+    static final int MB = 1 << 20;
+
+    /** Sizes of the documents formatted. */
+    static final long[] DOCUMENT_SIZES = { MB, 100L * MB };
+
+    /** Text widths used. */
+    static final int[] TEXT_WIDTHS = { Defaults.TEXT_WIDTH, 1000 };
+
+    /** Number of words in each paragraph of the documents. */
+    static final int PARAGRAPH_WORDS = 500;
+
+    /** Numbers of words in the paragraphs of the documents broken into
+     *  lines greedily and optimally. */
+    static final int[] BREAKING_PARAGRAPH_WORDS = { 500, 100_000 };
+
+    /** Size of the documents broken into lines greedily and
+     *  optimally. */
+    static final long BREAKING_SIZE = 10L * MB;
+
+    /** Number of words in each line of the documents parsed. */
+    static final int LINE_WORDS = 12;
+
+    /** The modes of Controller benchmarked: buffered, streaming, and
+     *  streaming with paragraphs formatted in parallel. */
+    static final String[] MODES = { "buffered", "streaming", "parallel" };
+
+    /** Lines kept by a LineAssembler before a benchmark discards
+     *  them. */
+    static final int MAX_LINES = 1 << 12;
+
+    /** Run the benchmarks whose names match ARGS[0], or all of them if
+     *  ARGS is empty. */
+    public static void main(String[] args) {
+        Pattern select = Pattern.compile(args.length > 0 ? args[0] : ".*");
+        Benchmarks b = new Benchmarks(select);
+        System.out.printf("%-44s %14s %14s%n", "benchmark", "ns/char",
+                          "bytes/char");
+        b.lineBenchmarks();
+        b.breakingBenchmarks();
+        b.controllerBenchmarks();
+        b.parserBenchmarks();
+        System.out.printf("%n%-44s %14s %14s%n", "footprint", "ms to line 1",
+                          "MB held");
+        b.footprints();
+        System.out.printf("(checksum %d)%n", b._sink);
+    }
+
+    /** A set of benchmarks, selecting those to run with SELECT. */
+    Benchmarks(Pattern select) {
+        _select = select;
+    }
+
+    /** Benchmark filling and justifying documents of several sizes at
+     *  several text widths with a LineAssembler, whose words are
+     *  supplied directly rather than parsed. */
+    void lineBenchmarks() {
+        for (long size : DOCUMENT_SIZES) {
+            for (int width : TEXT_WIDTHS) {
+                bench("LineAssembler/" + label(size) + "/width-" + width,
+                      size, () -> assemble(size, width, PARAGRAPH_WORDS,
+                                           false));
+            }
+        }
+    }
+
+    /** Benchmark breaking paragraphs of several lengths into lines at
+     *  several text widths, greedily and optimally. */
+    void breakingBenchmarks() {
+        for (int words : BREAKING_PARAGRAPH_WORDS) {
+            for (int width : TEXT_WIDTHS) {
+                for (boolean optimal : new boolean[] { false, true }) {
+                    bench("LineBreaking/" + words + "-words/width-" + width
+                          + (optimal ? "/optimal" : "/greedy"),
+                          BREAKING_SIZE, () -> assemble(BREAKING_SIZE, width,
+                                                        words, optimal));
+                }
+            }
+        }
+    }
+
+    /** Fill and justify about SIZE characters of words, in paragraphs
+     *  of PARAGRAPHWORDS words, at text width WIDTH, breaking lines
+     *  optimally iff OPTIMAL, and return the number of characters in
+     *  the lines produced. */
+    static long assemble(long size, int width, int paragraphWords,
+                         boolean optimal) {
+        LineAssembler assembler =
+            new LineAssembler(new PageCollector(new ArrayList<String>()));
+        assembler.setTextWidth(width);
+        assembler.setOptimalBreaking(optimal);
+        List<String> lines = assembler.getterLines();
+        long result = 0;
+        long chars = 0;
+        for (int k = 1; chars < size; k += 1) {
+            String word = WORDS[k % WORDS.length];
+            assembler.addText(word);
+            chars += word.length() + 1;
+            if (k % paragraphWords == 0) {
+                assembler.endParagraph();
+                assembler.setParIndentation(Defaults.PARAGRAPH_INDENTATION);
+            }
+            if (lines.size() >= MAX_LINES) {
+                result += length(lines);
+                lines.clear();
+            }
+        }
+        assembler.endParagraph();
+        return result + length(lines);
+    }
+
+    /** Benchmark formatting documents of several sizes with a
+     *  Controller in each of MODES. */
+    void controllerBenchmarks() {
+        for (long size : DOCUMENT_SIZES) {
+            for (String mode : MODES) {
+                bench("Controller/" + label(size) + "/" + mode,
+                      size, () -> format(size, mode, new Sink(), false));
+            }
+        }
+    }
+
+    /** Benchmark reading documents of several sizes, with a command
+     *  starting each paragraph and an endnote ending it, with
+     *  InputParser's Lexer and with its patterns. */
+    void parserBenchmarks() {
+        for (long size : DOCUMENT_SIZES) {
+            String name = "InputParser/" + label(size);
+            if (!selected(name + "/lexer") && !selected(name + "/patterns")) {
+                continue;
+            }
+            String doc = document(size);
+            bench(name + "/lexer", size, () -> parse(doc, true));
+            bench(name + "/patterns", size, () -> parse(doc, false));
+        }
+    }
+
+    /** Format DOC, streaming it to a Sink, with InputParser.process if
+     *  LEXER, and otherwise with InputParser.processWithPatterns.  Return
+     *  the number of characters written. */
+    static long parse(String doc, boolean lexer) {
+        Sink sink = new Sink();
+        InputParser parser =
+            new InputParser(doc, new Controller(new PrintWriter(
+                new BufferedWriter(sink)), true));
+        if (lexer) {
+            parser.process();
+        } else {
+            parser.processWithPatterns();
+        }
+        return sink._chars;
+    }
+
+    /** Return a document of about SIZE characters, in paragraphs of
+     *  PARAGRAPH_WORDS words in lines of LINE_WORDS words, each paragraph
+     *  starting with a command and ending with an endnote. */
+    static String document(long size) {
+        StringBuilder doc = new StringBuilder((int) size + MB);
+        for (int k = 1; doc.length() < size; k += 1) {
+            if (k % PARAGRAPH_WORDS == 1) {
+                doc.append("\\parskip{1}");
+            }
+            doc.append(WORDS[k % WORDS.length]);
+            if (k % PARAGRAPH_WORDS == 0) {
+                doc.append("\\endnote{See the notes.}\n\n");
+            } else if (k % LINE_WORDS == 0) {
+                doc.append('\n');
+            } else {
+                doc.append(' ');
+            }
+        }
+        return doc.toString();
+    }
+
+    /** Print, for each document size and mode of controllerBenchmarks
+     *  that is selected, the time until the first line of output reaches
+     *  its destination and the heap in use just before the document is
+     *  closed. */
+    void footprints() {
+        for (long size : DOCUMENT_SIZES) {
+            for (String mode : MODES) {
+                String name = "Controller/" + label(size) + "/" + mode;
+                if (!selected(name)) {
+                    continue;
+                }
+                Sink sink = new Sink();
+                long start = System.nanoTime();
+                _sink += format(size, mode, sink, true);
+                System.out.printf("%-44s %14.1f %14.1f%n", name,
+                                  (sink._firstWrite - start) / 1e6,
+                                  (double) sink._held / MB);
+            }
+        }
+    }
+
+    /** Format about SIZE characters of words, in paragraphs of
+     *  PARAGRAPH_WORDS words, with a Controller in mode MODE writing to
+     *  SINK through a buffer.  Iff MEASURE, record in SINK the heap in use
+     *  before the document is closed.  Return the number of characters
+     *  written. */
+    static long format(long size, String mode, Sink sink, boolean measure) {
+        Controller controller =
+            new Controller(new PrintWriter(new BufferedWriter(sink)),
+                           !mode.equals("buffered"), mode.equals("parallel"));
+        long chars = 0;
+        for (int k = 1; chars < size; k += 1) {
+            String word = WORDS[k % WORDS.length];
+            controller.addText(word);
+            chars += word.length() + 1;
+            if (k % PARAGRAPH_WORDS == 0) {
+                controller.endParagraph();
+            }
+        }
+        if (measure) {
+            sink._held = heapInUse();
+        }
+        controller.close();
+        return sink._chars;
+    }
+
+    /** A Writer that discards its output, counting it and noting when it
+     *  first receives any. */
+    static class Sink extends Writer {
+        @Override
+        public void write(char[] buf, int off, int len) {
+            if (_chars == 0) {
+                _firstWrite = System.nanoTime();
+            }
+            _chars += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /** Number of characters written. */
+        private long _chars;
+        /** Value of System.nanoTime() at the first write. */
+        private long _firstWrite;
+        /** Bytes of heap in use, as measured by format. */
+        private long _held;
+    }
+
+    /** Return the number of bytes of heap in use after a garbage
+     *  collection. */
+    static long heapInUse() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+            .getUsed();
+    }
+
+    /** Return the total length of LINES. */
+    static long length(List<String> lines) {
+        long result = 0;
+        for (String line : lines) {
+            result += line.length();
+        }
+        return result;
+    }
+
+    /** Run BODY, which performs OPS operations and returns a value that
+     *  depends on them, as the benchmark NAME, if NAME is selected, and
+     *  print its results. */
+    void bench(String name, long ops, LongSupplier body) {
+        if (!selected(name)) {
+            return;
+        }
+        long calls = 1;
+        for (int r = 0; r < WARMUP_ROUNDS; r += 1) {
+            long nanos = round(body, calls);
+            while (nanos < MIN_ROUND_NANOS) {
+                calls *= 2;
+                nanos = round(body, calls);
+            }
+        }
+        long nanos, bytes, bytes0;
+        nanos = bytes = bytes0 = 0;
+        for (int r = 0; r < ROUNDS; r += 1) {
+            bytes0 = allocated();
+            nanos += round(body, calls);
+            bytes += allocated() - bytes0;
+        }
+        double total = (double) ops * calls * ROUNDS;
+        System.out.printf("%-44s %14.2f %14.2f%n", name, nanos / total,
+                          bytes0 < 0 ? Double.NaN : bytes / total);
+    }
+
+    /** Return true iff the benchmark NAME is to be run. */
+    boolean selected(String name) {
+        return _select.matcher(name).matches();
+    }
+
+    /** Return the time in nanoseconds taken by CALLS calls of BODY. */
+    private long round(LongSupplier body, long calls) {
+        long start = System.nanoTime();
+        for (long i = 0; i < calls; i += 1) {
+            _sink += body.getAsLong();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** Return the number of bytes allocated so far by the current
+     *  thread, or -1 if this JVM does not measure it. */
+    static long allocated() {
+        if (ALLOCATION == null) {
+            return -1;
+        }
+        return ALLOCATION.getThreadAllocatedBytes(
+            Thread.currentThread().getId());
+    }
+
+    /** Return a short label for SIZE bytes. */
+    static String label(long size) {
+        return size >= MB ? size / MB + "MB" : size + "B";
+    }
+
+    /** Words from which the benchmark documents are made. */
+    private static final String[] WORDS = new String[1 << 12];
+
+    static {
+        Random random = new Random(WORDS.length);
+        for (int i = 0; i < WORDS.length; i += 1) {
+            char[] word = new char[1 + random.nextInt(10)];
+            for (int j = 0; j < word.length; j += 1) {
+                word[j] = (char) ('a' + random.nextInt(26));
+            }
+            WORDS[i] = new String(word);
+        }
+    }
+
+    /** Source of per-thread allocation counts, or null if this JVM does
+     *  not provide them. */
+    private static final com.sun.management.ThreadMXBean ALLOCATION;
+
+    static {
+        java.lang.management.ThreadMXBean bean =
+            ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) bean)
+                .isThreadAllocatedMemorySupported()) {
+            ALLOCATION = (com.sun.management.ThreadMXBean) bean;
+        } else {
+            ALLOCATION = null;
+        }
+    }
+
+    /** Pattern selecting the benchmarks to run. */
+    private final Pattern _select;
+
+    /** Accumulates results of benchmarks so that they are not optimized
+     *  away. */
+    private long _sink;
+}
@@ -2,6 +2,7 @@ package tex61;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.function.Consumer;
 
 /** Receives (partial) words and commands, performs commands, and
  *  accumulates and formats words into lines of text, which are sent to a
@@ -13,21 +14,47 @@ import java.util.ArrayList;
  */
 class Controller {
 
-    /** A new Controller that sends formatted output to OUT. */
+    /** A new Controller that sends formatted output to OUT when it is
+     *  closed. */
     Controller(PrintWriter out) {
+        this(out, false);
+    }
+
+    /** A new Controller that sends formatted output to OUT.  Iff
+     *  STREAMING, each line is printed as soon as it is finished, and only
+     *  the endnotes are held until close; otherwise, the whole document is
+     *  kept and printed by close. */
+    Controller(PrintWriter out, boolean streaming) {
+        this(out, streaming, false);
+    }
+
+    /** A new Controller that sends formatted output to OUT, streaming it
+     *  iff STREAMING, as for Controller(OUT, STREAMING).  Iff PARALLEL,
+     *  paragraphs of the document are formatted concurrently by a
+     *  ParallelFormatter, with the same result. */
+    Controller(PrintWriter out, boolean streaming, boolean parallel) {
         _out = out;
         _endnoteMode = false;
         _refNum = 0;
         _list = new ArrayList<String>();
         _pages = new PageCollector(_list);
-        _line = new LineAssembler(_pages);
+        _printer = new PagePrinter(_out);
+        PageAssembler pages = streaming ? _printer : _pages;
+        _line = new LineAssembler(pages);
+        _line.setStreaming(streaming);
         _endNotesList = new ArrayList<String>();
         _newpages = new PageCollector(_line.getterLines());
-        _endNotes = new LineAssembler(_pages);
+        _endNotes = new LineAssembler(pages);
+        _endNotes.setStreaming(streaming);
         _endPage = new LineAssembler(_pages);
-        _printer = new PagePrinter(_out);
         _endpages = new PageCollector(_endNotes.getterLines());
+        if (parallel) {
+            _parallel = new ParallelFormatter(_line);
+        }
     }
+    /** Formats paragraphs of _line concurrently, or null if they are
+     *  formatted by _line itself. */
+    private ParallelFormatter _parallel;
     /** ArrayList for LineAssembler. */
     private ArrayList<String> _list;
     /** ArrayList of endnotes. */
@@ -57,7 +84,17 @@ class Controller {
         if (_endnoteMode) {
             _endPage.addText(text);
         } else {
+            addMainText(text);
+        }
+    }
+
+    /** Add TEXT to the end of the word of the document currently being
+     *  accumulated. */
+    private void addMainText(String text) {
+        if (_parallel == null) {
             _line.addText(text);
+        } else {
+            _parallel.add(a -> a.addText(text));
         }
     }
 
@@ -65,20 +102,35 @@ class Controller {
      *  list of words for the next line.  Has no effect if no unfinished
      *  word is being accumulated. */
     void endWord() {
-        _line.finishWord();
+        if (_parallel == null) {
+            _line.finishWord();
+        } else {
+            _parallel.add(LineAssembler::finishWord);
+        }
     }
 
     /** Finish any current word of formatted text and process an end-of-line
      *  according to the current formatting parameters. */
     void addNewline() {
-        _line.newLine();
+        if (_parallel == null) {
+            _line.newLine();
+        } else {
+            _parallel.add(LineAssembler::newLine);
+        }
     }
 
     /** Finish any current word of formatted text, format and output any
      *  current line of text, and start a new paragraph. */
     void endParagraph() {
-        _line.endParagraph();
-        _line.setParIndentation(Defaults.PARAGRAPH_INDENTATION);
+        if (_parallel == null) {
+            _line.endParagraph();
+        } else {
+            _parallel.add(LineAssembler::endParagraph);
+        }
+        setting(a -> a.setParIndentation(Defaults.PARAGRAPH_INDENTATION));
+        if (_parallel != null) {
+            _parallel.endParagraph();
+        }
     }
 
     /** If valid, process TEXT into an endnote, first appending a reference
@@ -86,7 +138,7 @@ class Controller {
     void formatEndnote(String text) {
         _refNum++;
         setEndnoteMode();
-        _line.addText("[" + _refNum + "]");
+        addMainText("[" + _refNum + "]");
         setNormalMode();
     }
     /** holds Endnotes in place with String TEXT. */
@@ -94,52 +146,68 @@ class Controller {
         _endNotesList.add(text);
     }
     /** Set the current text height (number of lines per page) to VAL, if
-     *  it is a valid setting.  Ignored when accumulating an endnote. */
+     *  it is a valid setting.  Ignored when accumulating an endnote.  When
+     *  formatting in parallel, it applies from the end of the last batch
+     *  of paragraphs started. */
     void setTextHeight(int val) {
+        if (_parallel != null) {
+            _parallel.flush();
+        }
         _line.setTextHeight(val);
     }
 
     /** Set the current text width (width of lines including indentation)
      *  to VAL, if it is a valid setting. */
     void setTextWidth(int val) {
-        _line.setTextWidth(val);
+        setting(a -> a.setTextWidth(val));
     }
 
     /** Set the current text indentation (number of spaces inserted before
      *  each line of formatted text) to VAL, if it is a valid setting. */
     void setIndentation(int val) {
-        _line.setIndentation(val);
+        setting(a -> a.setIndentation(val));
     }
 
     /** Set the current paragraph indentation (number of spaces inserted before
      *  first line of a paragraph in addition to indentation) to VAL, if it is
      *  a valid setting. */
     void setParIndentation(int val) {
-        _line.setParIndentation(val);
+        setting(a -> a.setParIndentation(val));
     }
 
     /** Set the current paragraph skip (number of blank lines inserted before
      *  a new paragraph, if it is not the first on a page) to VAL, if it is
      *  a valid setting. */
     void setParSkip(int val) {
-        _line.setParSkip(val);
+        setting(a -> a.setParSkip(val));
     }
 
     /** Iff ON, begin filling lines of formatted text. */
     void setFill(boolean on) {
-        _line.setFill(on);
+        setting(a -> a.setFill(on));
+    }
+
+    /** Iff OPTIMAL, break paragraphs into lines optimally rather than
+     *  greedily, from the next paragraph if one is in progress. */
+    void setOptimalBreaking(boolean optimal) {
+        setting(a -> a.setOptimalBreaking(optimal));
     }
 
     /** Iff ON, begin justifying lines of formatted text whenever filling is
      *  also on. */
     void setJustify(boolean on) {
-        _line.setJustify(on);
+        setting(a -> a.setJustify(on));
     }
 
     /** Finish the current formatted document or endnote (depending on mode).
-     *  Formats and outputs all pending text. */
+     *  Formats and outputs all pending text.  When streaming, the lines of
+     *  the document have already been printed, and the endnotes are printed
+     *  as they are formatted. */
     void close() {
         addNewline();
+        if (_parallel != null) {
+            _parallel.finish();
+        }
         writeEndnotes();
         for (String elem: _newpages.getLines()) {
             _printer.write(elem);
@@ -150,6 +218,16 @@ class Controller {
         _out.close();
     }
 
+    /** Perform OP, which sets a formatting parameter, on _line, first
+     *  recording it for the paragraphs being formatted in parallel, if
+     *  any. */
+    private void setting(Consumer<LineAssembler> op) {
+        if (_parallel != null) {
+            _parallel.add(op);
+        }
+        op.accept(_line);
+    }
+
     /** Start directing all formatted text to the endnote assembler. */
     private void setEndnoteMode() {
         _endnoteMode = true;
@@ -41,6 +41,27 @@ public class ControllerTest {
         _cont.setFill(true);
         assertEquals("Fill should be on", _line.getFill(), true);
     }
+    @Test
+    public void testStreaming() {
+        String text = "\\textwidth{30}Streamed lines are printed as soon"
+            + " as\nthey are formatted\\endnote{a note}.\n\n"
+            + "Another paragraph follows.\n";
+        StringWriter buffered = new StringWriter();
+        new InputParser(text, new Controller(new PrintWriter(buffered)))
+            .process();
+        StringWriter streamed = new StringWriter();
+        Controller cont = new Controller(new PrintWriter(streamed), true);
+        cont.addText("First");
+        cont.addText("paragraph.");
+        cont.endParagraph();
+        assertEquals("Line not streamed", "   First paragraph.\n",
+                     streamed.toString().replace("\r", ""));
+        streamed = new StringWriter();
+        new InputParser(text, new Controller(new PrintWriter(streamed), true))
+            .process();
+        assertEquals("Streamed output differs", buffered.toString(),
+                     streamed.toString());
+    }
     /** PrintWriter _out. */
     private PrintWriter _out;
     /** String. */
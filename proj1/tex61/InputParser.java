@@ -3,11 +3,15 @@ package tex61;
 import java.util.Scanner;
 import java.util.regex.Pattern;
 import java.util.regex.MatchResult;
+import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
 
 /** Reads commands and text from an input source and send the results
  *  to a designated Controller. This essentially breaks the input down
- *  into "tokens"---commands and pieces of text.
+ *  into "tokens"---commands and pieces of text.  Tokens are read by a
+ *  Lexer; the patterns below define the tokens it reads, and are used by
+ *  processWithPatterns to check it.
  *  @author Charles Lee
  */
 class InputParser {
@@ -17,7 +21,7 @@ class InputParser {
      *  string or input source. If it matches and group 1 is null, the
      *  argument was not well-formed (the final } was missing or the
      *  argument list was nested too deeply). */
-    private static final Pattern BALANCED_TEXT =
+    static final Pattern BALANCED_TEXT =
         Pattern.compile("(?s)((?:\\\\.|[^\\\\{}]"
                         + "|[{](?:\\\\.|[^\\\\{}])*[}])*)"
                         + "\\}"
@@ -29,7 +33,7 @@ class InputParser {
      *  be non-null.  See these declarations for descriptions of what
      *  this pattern matches.  To test whether .group(*_TOKEN) is null
      *  quickly, check for .end(*_TOKEN) > -1).  */
-    private static final Pattern INPUT_PATTERN =
+    static final Pattern INPUT_PATTERN =
         Pattern.compile("(?s)(\\p{Blank}+)"
                         + "|(\\r?\\n((?:\\r?\\n)+)?)"
                         + "|\\\\([\\p{Blank}{}\\\\])"
@@ -39,11 +43,11 @@ class InputParser {
 
     /** Commands. */
     private final String commandarguments = "parindent"
-            + "textwidthtextheightparskipendnote";
+            + "textwidthtextheightparskipendnotelinebreak";
     /** Other commands. */
     private final String filljust = "nofillnojustify";
     /** Symbolic names for the groups in INPUT_PATTERN. */
-    private static final int
+    static final int
         /** Blank or tab. */
         BLANK_TOKEN = 1,
         /** End of line or paragraph. */
@@ -69,23 +73,56 @@ class InputParser {
     /** A new InputParser taking input from READER and sending tokens to
      *  OUT. */
     InputParser(Reader reader, Controller out) {
-        _input = new Scanner(reader);
+        _input = reader;
         _out = out;
     }
 
     /** A new InputParser whose input is TEXT and that sends tokens to
      *  OUT. */
     InputParser(String text, Controller out) {
-        _input = new Scanner(text);
-        _out = out;
+        this(new StringReader(text), out);
     }
 
     /** Break all input source text into tokens, and send them to our
      *  output controller.  Finishes by calling .close on the controller.
      */
     void process() {
-        while (_input.findWithinHorizon(INPUT_PATTERN, 0) != null) {
-            MatchResult match = _input.match();
+        Lexer lexer = new Lexer(_input);
+        try {
+            for (int token = lexer.next(); token != Lexer.EOF;
+                 token = lexer.next()) {
+                switch (token) {
+                case Lexer.ESCAPED:
+                case Lexer.TEXT:
+                    _out.addText(lexer.text());
+                    break;
+                case Lexer.EOP:
+                    _out.endParagraph();
+                    break;
+                case Lexer.COMMAND:
+                    processCommand(lexer.text(), lexer.argument());
+                    break;
+                case Lexer.ERROR:
+                    throw new FormatException("Error");
+                default:
+                    break;
+                }
+            }
+            _out.close();
+            lexer.close();
+        } catch (IOException e) {
+            FormatException.reportError("%s", e.getMessage());
+        }
+    }
+
+    /** Break all input source text into tokens with INPUT_PATTERN and
+     *  BALANCED_TEXT, rather than a Lexer, and send them to our output
+     *  controller, finishing by calling .close on it.  This is the
+     *  reference against which the Lexer is tested. */
+    void processWithPatterns() {
+        Scanner input = new Scanner(_input);
+        while (input.findWithinHorizon(INPUT_PATTERN, 0) != null) {
+            MatchResult match = input.match();
             if (match.group(ESCAPED_CHAR_TOKEN) != null) {
                 _out.addText(match.group(ESCAPED_CHAR_TOKEN));
             }
@@ -94,7 +131,7 @@ class InputParser {
             }
             if (match.group(COMMAND_TOKEN) != null) {
                 processCommand(match.group(COMMAND_TOKEN),
-                    _input.findWithinHorizon(BALANCED_TEXT, 0));
+                    input.findWithinHorizon(BALANCED_TEXT, 0));
             }
             if (match.group(TEXT_TOKEN) != null) {
                 _out.addText(match.group(TEXT_TOKEN));
@@ -104,7 +141,7 @@ class InputParser {
             }
         }
         _out.close();
-        _input.close();
+        input.close();
 
     }
 
@@ -154,6 +191,15 @@ class InputParser {
             case "nojustify":
                 _out.setJustify(false);
                 break;
+            case "linebreak":
+                if (arg.equals("optimal")) {
+                    _out.setOptimalBreaking(true);
+                } else if (arg.equals("greedy")) {
+                    _out.setOptimalBreaking(false);
+                } else {
+                    throw new FormatException();
+                }
+                break;
             case "endnote":
                 _out.formatEndnote(arg);
                 _out.holdEndnote(arg);
@@ -169,7 +215,7 @@ class InputParser {
     }
 
     /** My input source. */
-    private final Scanner _input;
+    private final Reader _input;
     /** The Controller to which I send input tokens. */
     private Controller _out;
 
@@ -0,0 +1,253 @@
+package tex61;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/** Divides input to the text formatter into the tokens matched by
+ *  InputParser.INPUT_PATTERN, and reads the command arguments matched by
+ *  InputParser.BALANCED_TEXT, examining each character once.  Input is
+ *  read from a Reader into a buffer of BUFFER_SIZE characters, which is
+ *  enlarged only when a single token, or the text scanned to find the
+ *  end of a command argument, is longer than that.
+ *  @author Charles Lee
+ */
+class Lexer {
+
+    /** Kinds of token returned by next. */
+    static final int
+        /** End of input. */
+        EOF = 0,
+        /** Blanks and tabs. */
+        BLANK = 1,
+        /** A single end of line. */
+        EOL = 2,
+        /** Two or more ends of line (end of paragraph). */
+        EOP = 3,
+        /** \{, \}, \\, or \ .  text() is the character after the
+         *  backslash. */
+        ESCAPED = 4,
+        /** Command (\<alphabetic characters>), with a '{' immediately
+         *  following it, if any.  text() is the characters after the
+         *  backslash, and brace() is true iff the '{' was present. */
+        COMMAND = 5,
+        /** Segment of other text, not including any blanks, ends of
+         *  line, or the characters \, {, or }.  text() is the segment. */
+        TEXT = 6,
+        /** A character that should not be here.  text() is the
+         *  character. */
+        ERROR = 7;
+
+    /** Initial size of my buffer. */
+    static final int BUFFER_SIZE = 1 << 13;
+
+    /** A Lexer reading from INPUT. */
+    Lexer(Reader input) {
+        _input = input;
+        _buf = new char[BUFFER_SIZE];
+    }
+
+    /** Read and return the kind of the next token, or EOF if there are
+     *  no more. */
+    int next() throws IOException {
+        _mark = _pos;
+        _text = null;
+        int c = peek(0);
+        if (c < 0) {
+            return EOF;
+        } else if (c == ' ' || c == '\t') {
+            do {
+                _pos += 1;
+                c = peek(0);
+            } while (c == ' ' || c == '\t');
+            return BLANK;
+        } else if (newlineLength() > 0) {
+            _pos += newlineLength();
+            if (newlineLength() == 0) {
+                return EOL;
+            }
+            for (int n = newlineLength(); n > 0; n = newlineLength()) {
+                _pos += n;
+            }
+            return EOP;
+        } else if (c == '\\') {
+            int d = peek(1);
+            if (d == ' ' || d == '\t' || d == '{' || d == '}' || d == '\\') {
+                _pos += 2;
+                _text = String.valueOf((char) d);
+                return ESCAPED;
+            } else if (isLetter(d)) {
+                _pos += 2;
+                while (isLetter(peek(0))) {
+                    _pos += 1;
+                }
+                _text = new String(_buf, _mark + 1, _pos - _mark - 1);
+                _brace = peek(0) == '{';
+                if (_brace) {
+                    _pos += 1;
+                }
+                return COMMAND;
+            }
+        } else if (isText(c)) {
+            do {
+                _pos += 1;
+            } while (isText(peek(0)));
+            _text = new String(_buf, _mark, _pos - _mark);
+            return TEXT;
+        }
+        _pos += 1;
+        _text = String.valueOf((char) c);
+        return ERROR;
+    }
+
+    /** Return the text of the last token read by next, as described for
+     *  each kind, or null for other kinds. */
+    String text() {
+        return _text;
+    }
+
+    /** Return true iff the last COMMAND read was followed by '{'. */
+    boolean brace() {
+        return _brace;
+    }
+
+    /** Read and return what InputParser.BALANCED_TEXT matches at this
+     *  point: the text up to and including a '}' if it is preceded only
+     *  by escaped characters, characters other than \, { and }, and
+     *  groups of these enclosed in braces; otherwise, the next character
+     *  alone; or null at the end of input. */
+    String argument() throws IOException {
+        _mark = _pos;
+        int i;
+        for (i = 0; peek(i) >= 0 && peek(i) != '}'; ) {
+            int c = peek(i);
+            if (c == '{') {
+                i = skipGroup(i + 1);
+            } else if (c == '\\') {
+                i = peek(i + 1) < 0 ? -1 : i + 2;
+            } else {
+                i += 1;
+            }
+            if (i < 0) {
+                break;
+            }
+        }
+        int n;
+        if (i >= 0 && peek(i) == '}') {
+            n = i + 1;
+        } else if (peek(0) < 0) {
+            return null;
+        } else if (Character.isHighSurrogate((char) peek(0))
+                   && Character.isLowSurrogate((char) peek(1))) {
+            n = 2;
+        } else {
+            n = 1;
+        }
+        _pos += n;
+        return new String(_buf, _mark, n);
+    }
+
+    /** Close my input. */
+    void close() throws IOException {
+        _input.close();
+    }
+
+    /** Return the index, relative to the current position, just after
+     *  the '}' that closes a group of escaped characters and characters
+     *  other than \, { and } beginning at relative index I, or -1 if
+     *  there is no such '}'. */
+    private int skipGroup(int i) throws IOException {
+        while (true) {
+            int c = peek(i);
+            if (c == '}') {
+                return i + 1;
+            } else if (c < 0 || c == '{') {
+                return -1;
+            } else if (c == '\\') {
+                if (peek(i + 1) < 0) {
+                    return -1;
+                }
+                i += 2;
+            } else {
+                i += 1;
+            }
+        }
+    }
+
+    /** Return the length of the end of line (\n or \r\n) at the current
+     *  position, or 0 if there is none. */
+    private int newlineLength() throws IOException {
+        int c = peek(0);
+        if (c == '\n') {
+            return 1;
+        } else if (c == '\r' && peek(1) == '\n') {
+            return 2;
+        }
+        return 0;
+    }
+
+    /** Return the character K positions past the current position, or -1
+     *  if the input ends before it, reading more input as needed. */
+    private int peek(int k) throws IOException {
+        while (_pos + k >= _limit) {
+            if (!fill()) {
+                return -1;
+            }
+        }
+        return _buf[_pos + k];
+    }
+
+    /** Read more input into _buf, keeping the characters from _mark on,
+     *  and enlarging _buf if they fill it.  Return false if there is no
+     *  more input. */
+    private boolean fill() throws IOException {
+        if (_eof) {
+            return false;
+        }
+        if (_mark > 0) {
+            System.arraycopy(_buf, _mark, _buf, 0, _limit - _mark);
+            _pos -= _mark;
+            _limit -= _mark;
+            _mark = 0;
+        }
+        if (_limit == _buf.length) {
+            _buf = Arrays.copyOf(_buf, 2 * _buf.length);
+        }
+        int n = _input.read(_buf, _limit, _buf.length - _limit);
+        if (n < 0) {
+            _eof = true;
+            return false;
+        }
+        _limit += n;
+        return true;
+    }
+
+    /** Return true iff C is a letter, as for \p{Alpha}. */
+    private static boolean isLetter(int c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+    }
+
+    /** Return true iff C may appear in a TEXT token. */
+    private static boolean isText(int c) {
+        return c >= 0 && c != ' ' && c != '\t' && c != '\r' && c != '\n'
+            && c != '\\' && c != '{' && c != '}';
+    }
+
+    /** Source of input. */
+    private final Reader _input;
+    /** Buffer of input characters. */
+    private char[] _buf;
+    /** Index in _buf of the next character to be read. */
+    private int _pos;
+    /** Number of characters of input in _buf. */
+    private int _limit;
+    /** Index in _buf of the start of the token being read, before which
+     *  characters may be discarded. */
+    private int _mark;
+    /** True iff the end of input has been reached. */
+    private boolean _eof;
+    /** Text of the last token, or null. */
+    private String _text;
+    /** True iff the last command was followed by '{'. */
+    private boolean _brace;
+}
@@ -0,0 +1,155 @@
+package tex61;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.regex.MatchResult;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of Lexers, comparing them with the patterns in
+ *  InputParser.
+ *  @author Charles Lee
+ */
+public class LexerTest {
+
+    /** Characters from which random inputs are made. */
+    private static final String CHARS = "ab. \t\n\n\r\\\\{{}}";
+
+    /** Return the tokens of INPUT as read by a Lexer, with its input
+     *  buffer enlarged as needed, each with its text and, for
+     *  commands, its argument. */
+    private List<String> lexerTokens(String input) throws IOException {
+        Lexer lexer = new Lexer(new StringReader(input));
+        List<String> result = new ArrayList<>();
+        for (int token = lexer.next(); token != Lexer.EOF;
+             token = lexer.next()) {
+            if (token == Lexer.COMMAND) {
+                result.add(token + ":" + lexer.text() + ":" + lexer.brace()
+                           + ":" + lexer.argument());
+            } else {
+                result.add(token + ":" + lexer.text());
+            }
+        }
+        return result;
+    }
+
+    /** Return the tokens of INPUT as matched by InputParser's patterns,
+     *  in the form returned by lexerTokens. */
+    private List<String> patternTokens(String input) {
+        Scanner scanner = new Scanner(input);
+        List<String> result = new ArrayList<>();
+        while (scanner.findWithinHorizon(InputParser.INPUT_PATTERN, 0)
+               != null) {
+            MatchResult m = scanner.match();
+            if (m.group(InputParser.BLANK_TOKEN) != null) {
+                result.add(Lexer.BLANK + ":null");
+            } else if (m.group(InputParser.EOP_TOKEN) != null) {
+                result.add(Lexer.EOP + ":null");
+            } else if (m.group(InputParser.EOL_TOKEN) != null) {
+                result.add(Lexer.EOL + ":null");
+            } else if (m.group(InputParser.ESCAPED_CHAR_TOKEN) != null) {
+                result.add(Lexer.ESCAPED + ":"
+                           + m.group(InputParser.ESCAPED_CHAR_TOKEN));
+            } else if (m.group(InputParser.COMMAND_TOKEN) != null) {
+                boolean brace =
+                    !m.group(InputParser.COMMAND_ARG_TOKEN).isEmpty();
+                result.add(Lexer.COMMAND + ":"
+                           + m.group(InputParser.COMMAND_TOKEN) + ":" + brace
+                           + ":" + scanner.findWithinHorizon(
+                               InputParser.BALANCED_TEXT, 0));
+            } else if (m.group(InputParser.TEXT_TOKEN) != null) {
+                result.add(Lexer.TEXT + ":"
+                           + m.group(InputParser.TEXT_TOKEN));
+            } else {
+                result.add(Lexer.ERROR + ":"
+                           + m.group(InputParser.ERROR_TOKEN));
+            }
+        }
+        return result;
+    }
+
+    /** Return the output of formatting INPUT with InputParser.process if
+     *  LEXER, and otherwise with InputParser.processWithPatterns. */
+    private String format(Reader input, boolean lexer) {
+        StringWriter output = new StringWriter();
+        InputParser parser =
+            new InputParser(input, new Controller(new PrintWriter(output)));
+        if (lexer) {
+            parser.process();
+        } else {
+            parser.processWithPatterns();
+        }
+        return output.toString();
+    }
+
+    @Test
+    public void testTokens() throws IOException {
+        String[] inputs = {
+            "", "word", "two  words\there", "a\nb", "a\r\nb", "a\n\r\n\nb",
+            "a\rb", "\\{\\}\\\\\\ \\\t", "\\x", "\\", "\\textwidth{30}",
+            "\\textwidth 30}", "\\textwidth{3{0}}", "\\endnote{a {b} \\} c}",
+            "\\endnote{a {b {c}} d}", "\\endnote{unfinished", "\\nofill",
+            "\\nofill\\fill", "\\x\ud83d\ude00}", "\\x\ud83d\ude00",
+            "\\x{a\\", "{", "}", "caf\u00e9 \u00fcber",
+        };
+        for (String input : inputs) {
+            assertEquals("wrong tokens for \"" + input + "\"",
+                         patternTokens(input), lexerTokens(input));
+        }
+    }
+
+    @Test
+    public void testRandomTokens() throws IOException {
+        Random random = new Random(61);
+        for (int k = 0; k < 5000; k += 1) {
+            char[] input = new char[random.nextInt(30)];
+            for (int i = 0; i < input.length; i += 1) {
+                input[i] = CHARS.charAt(random.nextInt(CHARS.length()));
+            }
+            String text = new String(input);
+            if (random.nextBoolean()) {
+                text = "\\textwidth" + text;
+            }
+            assertEquals("wrong tokens for \"" + text + "\"",
+                         patternTokens(text), lexerTokens(text));
+        }
+    }
+
+    @Test
+    public void testLongTokens() throws IOException {
+        StringBuilder text = new StringBuilder("\\endnote{");
+        for (int i = 0; i < 3 * Lexer.BUFFER_SIZE; i += 1) {
+            text.append((char) ('a' + i % 26));
+        }
+        String word = text.substring("\\endnote{".length());
+        text.append("} ").append(word);
+        List<String> tokens = lexerTokens(text.toString());
+        assertEquals(3, tokens.size());
+        assertEquals(Lexer.COMMAND + ":endnote:true:" + word + "}",
+                     tokens.get(0));
+        assertEquals(Lexer.TEXT + ":" + word, tokens.get(2));
+    }
+
+    @Test
+    public void testCorrectInputs() throws IOException {
+        File[] files = new File("tests/correct").listFiles();
+        assertNotNull("cannot find tests/correct", files);
+        for (File file : files) {
+            if (file.getName().endsWith(".tx")) {
+                assertEquals("wrong output for " + file,
+                             format(new FileReader(file), false),
+                             format(new FileReader(file), true));
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package tex61;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /** An object that receives a sequence of words of text and formats
  *  the words into filled and justified text lines that are sent to a receiver.
@@ -25,8 +26,27 @@ class LineAssembler {
         _formattedLines = new ArrayList<String>();
         _end = false;
     }
+    /** A new line assembler sending finished lines to PAGES, with the
+     *  formatting parameters of OTHER and no words, as at the start of
+     *  the document or, iff PARAGRAPH, of a later paragraph. */
+    LineAssembler(LineAssembler other, PageAssembler pages,
+                  boolean paragraph) {
+        this(pages);
+        _textWidth = other._textWidth;
+        _indentation = other._indentation;
+        _parIndentation = other._parIndentation;
+        _parSkip = other._parSkip;
+        _fill = other._fill;
+        _justify = other._justify;
+        _end = other._end;
+        _optimal = other._optimal;
+        _nextOptimal = other._nextOptimal;
+        _first = paragraph && !_end;
+    }
     /** True if endnotemode on.  */
     private boolean _end;
+    /** True if finished lines go straight to _pages. */
+    private boolean _streaming;
     /** List of formatted lines. */
     private ArrayList<String> _formattedLines;
     /** returns the FORMATTEDLINES ArrayList. */
@@ -46,8 +66,13 @@ class LineAssembler {
         _current = "";
     }
 
-    /** Add WORD to the formatted text. */
+    /** Add WORD to the formatted text.  When breaking lines optimally,
+     *  the words of a paragraph are only collected until it ends. */
     void addWord(String word) {
+        if (_optimal && _fill) {
+            _words.add(word);
+            return;
+        }
         if (_chars + _words.size() + word.length()
                 + _parIndentation + _indentation <= _textWidth) {
             _words.add(word);
@@ -64,9 +89,20 @@ class LineAssembler {
         }
     }
     /** Add LINE to our output, with no preceding paragraph skip.  There must
-     *  not be an unfinished line pending. */
+     *  not be an unfinished line pending.  LINE is sent straight to _pages
+     *  when streaming, and is otherwise kept in _formattedLines. */
     void addLine(String line) {
-        _formattedLines.add(line);
+        if (_streaming) {
+            _pages.addLine(line);
+        } else {
+            _formattedLines.add(line);
+        }
+    }
+
+    /** Iff ON, send each finished line straight to my PageAssembler rather
+     *  than keeping it in getterLines(). */
+    void setStreaming(boolean on) {
+        _streaming = on;
     }
 
     /** Set the current indentation to VAL. VAL >= 0. */
@@ -100,10 +136,26 @@ class LineAssembler {
             throw new IllegalArgumentException();
         }
     }
-    /** Iff ON, set fill mode. */
+    /** Iff ON, set fill mode.  When breaking lines optimally, words
+     *  collected while filling are first broken into lines, the last of
+     *  which is left unfinished, as it would be when filling each line
+     *  in turn. */
     void setFill(boolean on) {
+        if (!on && _optimal && _fill && !_words.isEmpty()) {
+            breakLines();
+        }
         _fill = on;
     }
+    /** Iff OPTIMAL, break filled paragraphs into lines with a LineBreaker,
+     *  which chooses the breaks for the paragraph as a whole, and
+     *  otherwise fill each line in turn.  The change takes effect at the
+     *  start of the next paragraph if a paragraph is in progress. */
+    void setOptimalBreaking(boolean optimal) {
+        _nextOptimal = optimal;
+        if (_words.isEmpty()) {
+            _optimal = optimal;
+        }
+    }
     /** Iff ON, set justify mode (which is active only when filling is
      *  also on). */
     void setJustify(boolean on) {
@@ -138,13 +190,14 @@ class LineAssembler {
      *  adds a new complete line to the finished line queue and clears
      *  the line accumulator. */
     void newLine() {
-        outputLine(_final);
+        breakParagraph(_final);
     }
 
     /** If there is a current unfinished paragraph pending, close it
      *  out and start a new one. */
     void endParagraph() {
-        outputLine(true);
+        breakParagraph(true);
+        _optimal = _nextOptimal;
         if (!_end) {
             _first = true;
         } else {
@@ -152,46 +205,94 @@ class LineAssembler {
         }
     }
 
+    /** Output the words accumulated, ending with a line that is the last
+     *  of a paragraph iff LASTLINE, breaking them into lines optimally if
+     *  need be. */
+    private void breakParagraph(boolean lastLine) {
+        if (_optimal && _fill && !_words.isEmpty()) {
+            breakLines();
+        }
+        outputLine(lastLine);
+    }
+
+    /** Break the words accumulated into lines with _breaker, and output
+     *  all but the last line, whose words are left accumulated. */
+    private void breakLines() {
+        _paragraph.addAll(_words);
+        _words.clear();
+        int lines = _breaker.breakLines(_paragraph,
+            _textWidth - _indentation - _parIndentation,
+            _textWidth - _indentation);
+        int start = 0;
+        for (int k = 0; k < lines; k += 1) {
+            int end = _breaker.end(k);
+            _chars = 0;
+            for (String word : _paragraph.subList(start, end)) {
+                _words.add(word);
+                _chars += word.length();
+            }
+            if (k < lines - 1) {
+                outputLine(!_justify);
+            }
+            start = end;
+        }
+        _paragraph.clear();
+    }
+
     /** Transfer contents of _words to _pages, adding INDENT characters of
      *  indentation, and a total of SPACES spaces between words, evenly
-     *  distributed.  Assumes _words is not empty.  Clears _words and _chars. */
+     *  distributed.  Assumes _words is not empty.  Clears _words and _chars.
+     *  The line is built in _buffer, which is reused from line to line, so
+     *  that the only new object per line is the finished String. */
     private void emitLine(int indent, int spaces) {
-        String ind = "";
-        int count = 0;
-        int last = 0;
-        while (count < indent) {
-            ind += " ";
-            count++;
-        }
-        _words.set(0, ind + _words.get(0));
+        String first = _words.get(0);
         int wordsize = _words.size();
-        if (spaces >= 3 * (wordsize - 1)) {
-            for (int i = 0; i < wordsize - 1; i++) {
-                _words.set(i, _words.get(i) + "   ");
-            }
-        } else {
-            for (int i = 0; i < wordsize - 1; i++) {
-                int end = (int) ((.5 + spaces * ((float)
+        _length = 0;
+        appendSpaces(indent);
+        append(first);
+        int last = 0;
+        for (int i = 0; i < wordsize - 1; i++) {
+            int gap;
+            if (spaces >= 3 * (wordsize - 1)) {
+                gap = 3;
+            } else {
+                gap = (int) ((.5 + spaces * ((float)
                         (i + 1)) / (wordsize - 1))) - last;
-                last += end;
-                String spacespace = "";
-                int j = 0;
-                while (j < end) {
-                    spacespace += " ";
-                    j += 1;
-                }
-                _words.set(i + 1, spacespace + _words.get(i + 1));
+                last += gap;
             }
+            appendSpaces(gap);
+            append(_words.get(i + 1));
         }
-        String line = "";
-        for (String elem: _words) {
-            line += elem;
-        }
-        addLine(line);
+        addLine(new String(_buffer, 0, _length));
         _words.clear();
         _chars = 0;
     }
 
+    /** Append N spaces (none if N <= 0) to _buffer. */
+    private void appendSpaces(int n) {
+        if (n <= 0) {
+            return;
+        }
+        reserve(n);
+        Arrays.fill(_buffer, _length, _length + n, ' ');
+        _length += n;
+    }
+
+    /** Append WORD to _buffer. */
+    private void append(String word) {
+        reserve(word.length());
+        word.getChars(0, word.length(), _buffer, _length);
+        _length += word.length();
+    }
+
+    /** Ensure that _buffer has room for N more characters. */
+    private void reserve(int n) {
+        if (_length + n > _buffer.length) {
+            _buffer = Arrays.copyOf(_buffer,
+                                    Math.max(_length + n, 2 * _buffer.length));
+        }
+    }
+
     /** If the line accumulator is non-empty, justify its current
      *  contents, if needed, add a new complete line to _pages,
      *  and clear the line accumulator. LASTLINE indicates the last line
@@ -208,14 +309,12 @@ class LineAssembler {
             }
         }
         _first = false;
-        if (!lastLine && _fill) {
-            if (_words.size() == 1) {
-                emitLine(indent, 0);
-            }
-            if (!_words.isEmpty() && _justify) {
-                spaces = _textWidth - indent - _chars;
-                emitLine(indent, spaces);
-            }
+        if (_words.isEmpty()) {
+            return;
+        }
+        if (!lastLine && _fill && _justify) {
+            spaces = _textWidth - indent - _chars;
+            emitLine(indent, spaces);
         } else {
             spaces = _words.size() - 1;
             emitLine(indent, spaces);
@@ -225,6 +324,18 @@ class LineAssembler {
     void setEnd() {
         _end = true;
     }
+    /** True iff paragraphs are broken into lines by _breaker. */
+    private boolean _optimal;
+    /** Value of _optimal from the start of the next paragraph. */
+    private boolean _nextOptimal;
+    /** Chooses line breaks when _optimal. */
+    private final LineBreaker _breaker = new LineBreaker();
+    /** Words of the paragraph being broken by breakParagraph. */
+    private final ArrayList<String> _paragraph = new ArrayList<String>();
+    /** Buffer in which emitLine builds each line. */
+    private char[] _buffer = new char[Defaults.TEXT_WIDTH];
+    /** Number of characters of the line in _buffer. */
+    private int _length;
     /** Destination given in constructor for formatted lines. */
     private final PageAssembler _pages;
     /** TEXTWIDTH variable. */
@@ -1,6 +1,7 @@
 package tex61;
 import java.io.StringWriter;
 import java.io.PrintWriter;
+import java.util.Arrays;
 import static org.junit.Assert.*;
 
 import org.junit.Test;
@@ -46,6 +47,19 @@ public class LineAssemblerTest {
         _line.setParIndentation(val);
         assertEquals("Both are 5", _line.getInd(), _line.getParInd());
     }
+    @Test
+    public void testEmitLine() {
+        setUp();
+        _line.setTextWidth(20);
+        for (String word : "aaa bb c dddd ee f ggggggg hh iii".split(" ")) {
+            _line.addText(word);
+        }
+        _line.endParagraph();
+        assertEquals("Lines do not match",
+                     Arrays.asList("   aaa bb  c dddd ee",
+                                   "f ggggggg hh iii"),
+                     _line.getterLines());
+    }
     /** StringWriter OUTPUT. */
     private StringWriter output;
     /** PrintWriter _OUT. */
@@ -0,0 +1,142 @@
+package tex61;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** Breaks paragraphs into lines by the total-fit method of Knuth and
+ *  Plass: rather than filling each line in turn, it chooses the breaks
+ *  that minimize the sum of the demerits of all the lines.  A line whose
+ *  words, separated by single blanks, are ROOM characters shorter than
+ *  the width available and have GAPS gaps between them has badness
+ *  100 (ROOM / GAPS)^3, but at most MAX_BADNESS, and demerits
+ *  (LINE_PENALTY + badness)^2.  The last line of a paragraph has badness
+ *  0, and a line longer than the width, which is allowed only when it
+ *  holds a single word, has OVERFULL_DEMERITS.  There is no hyphenation,
+ *  and no demerits for adjacent lines of differing tightness.
+ *
+ *  A break is active while some line starting at it could still fit.
+ *  Lines are considered only from active breaks, so the time taken is
+ *  proportional to the number of words times the number of words that
+ *  fit on a line, however long the paragraph.
+ *  @author Charles Lee
+ */
+class LineBreaker {
+
+    /** Demerits of each line, in addition to its badness. */
+    static final double LINE_PENALTY = 10;
+
+    /** Greatest badness of a line. */
+    static final double MAX_BADNESS = 10000;
+
+    /** Demerits of a line longer than the width available. */
+    static final double OVERFULL_DEMERITS = 1e12;
+
+    /** Choose the breaks of the paragraph WORDS into lines, the first of
+     *  which has FIRST characters available and the others WIDTH, and
+     *  return the number of lines.  Line K ends before word end(K). */
+    int breakLines(List<String> words, int first, int width) {
+        int n = words.size();
+        reserve(n + 1);
+        for (int k = 0; k < n; k += 1) {
+            _prefix[k + 1] = _prefix[k] + words.get(k).length();
+        }
+        int active = 0;
+        _active[active++] = 0;
+        for (int j = 1; j <= n; j += 1) {
+            double best = Double.POSITIVE_INFINITY;
+            int kept = 0;
+            for (int a = 0; a < active; a += 1) {
+                int i = _active[a];
+                int room = (i == 0 ? first : width) - length(i, j);
+                if (room < 0 && j - i > 1) {
+                    continue;
+                }
+                _active[kept++] = i;
+                double d = _best[i] + demerits(room, j - i - 1, j == n);
+                if (d < best) {
+                    best = d;
+                    _prev[j] = i;
+                }
+            }
+            _best[j] = best;
+            _active[kept++] = j;
+            active = kept;
+        }
+        int lines = 0;
+        for (int j = n; j > 0; j = _prev[j]) {
+            lines += 1;
+        }
+        if (_ends.length < lines) {
+            _ends = new int[Math.max(lines, 2 * _ends.length)];
+        }
+        int k = lines;
+        for (int j = n; j > 0; j = _prev[j]) {
+            k -= 1;
+            _ends[k] = j;
+        }
+        return lines;
+    }
+
+    /** Return the index of the word after the last of line K chosen by
+     *  the last call of breakLines. */
+    int end(int k) {
+        return _ends[k];
+    }
+
+    /** Return the total demerits of the lines chosen by the last call of
+     *  breakLines. */
+    double demerits() {
+        return _best[_words];
+    }
+
+    /** Return the demerits of a line with ROOM characters to spare (less
+     *  than 0 if it is too long) and GAPS gaps between words, which is
+     *  the last of its paragraph iff LAST. */
+    static double demerits(int room, int gaps, boolean last) {
+        if (room < 0) {
+            return OVERFULL_DEMERITS;
+        }
+        double badness;
+        if (last || room == 0) {
+            badness = 0;
+        } else if (gaps == 0) {
+            badness = MAX_BADNESS;
+        } else {
+            double ratio = (double) room / gaps;
+            badness = Math.min(MAX_BADNESS, 100 * ratio * ratio * ratio);
+        }
+        return (LINE_PENALTY + badness) * (LINE_PENALTY + badness);
+    }
+
+    /** Return the length of words I .. J-1 separated by single blanks. */
+    private int length(int i, int j) {
+        return _prefix[j] - _prefix[i] + j - i - 1;
+    }
+
+    /** Ensure that my arrays hold at least N entries, and record N - 1 as
+     *  the number of words. */
+    private void reserve(int n) {
+        if (_prefix.length < n) {
+            int size = Math.max(n, 2 * _prefix.length);
+            _prefix = Arrays.copyOf(_prefix, size);
+            _best = new double[size];
+            _prev = new int[size];
+            _active = new int[size];
+        }
+        _words = n - 1;
+    }
+
+    /** _prefix[K] is the total length of the first K words. */
+    private int[] _prefix = new int[1];
+    /** _best[K] is the least total demerits of lines ending before word
+     *  K. */
+    private double[] _best = new double[1];
+    /** _prev[K] is the start of the last of the lines giving _best[K]. */
+    private int[] _prev = new int[1];
+    /** Active breaks, in increasing order. */
+    private int[] _active = new int[1];
+    /** Ends of the lines chosen. */
+    private int[] _ends = new int[0];
+    /** Number of words in the paragraph last broken. */
+    private int _words;
+}
@@ -0,0 +1,144 @@
+package tex61;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of LineBreakers.
+ *  @author Charles Lee
+ */
+public class LineBreakerTest {
+
+    /** Return N random words made with RANDOM. */
+    private List<String> words(Random random, int n) {
+        List<String> result = new ArrayList<>();
+        for (int k = 0; k < n; k += 1) {
+            char[] word = new char[1 + random.nextInt(12)];
+            Arrays.fill(word, (char) ('a' + k % 26));
+            result.add(new String(word));
+        }
+        return result;
+    }
+
+    /** Return the least total demerits of any breaking of WORDS into
+     *  lines, the first FIRST characters wide and the others WIDTH,
+     *  found by trying every breaking. */
+    private double exhaustive(List<String> words, int first, int width) {
+        int n = words.size();
+        double best = Double.POSITIVE_INFINITY;
+        for (int breaks = 0; breaks < 1 << (n - 1); breaks += 1) {
+            double total = 0;
+            int start = 0;
+            for (int j = 1; j <= n; j += 1) {
+                if (j == n || (breaks & 1 << (j - 1)) != 0) {
+                    int room = (start == 0 ? first : width)
+                        - length(words, start, j);
+                    if (room < 0 && j - start > 1) {
+                        total = Double.POSITIVE_INFINITY;
+                        break;
+                    }
+                    total += LineBreaker.demerits(room, j - start - 1,
+                                                  j == n);
+                    start = j;
+                }
+            }
+            best = Math.min(best, total);
+        }
+        return best;
+    }
+
+    /** Return the length of WORDS[I .. J-1] separated by single
+     *  blanks. */
+    private int length(List<String> words, int i, int j) {
+        int result = j - i - 1;
+        for (int k = i; k < j; k += 1) {
+            result += words.get(k).length();
+        }
+        return result;
+    }
+
+    @Test
+    public void testLeastDemerits() {
+        Random random = new Random(61);
+        LineBreaker breaker = new LineBreaker();
+        for (int k = 0; k < 500; k += 1) {
+            List<String> words = words(random, 1 + random.nextInt(12));
+            int width = 8 + random.nextInt(30);
+            int first = width - random.nextInt(6);
+            int lines = breaker.breakLines(words, first, width);
+            double total = 0;
+            int start = 0;
+            for (int line = 0; line < lines; line += 1) {
+                int end = breaker.end(line);
+                assertTrue("empty line", end > start);
+                int room = (start == 0 ? first : width)
+                    - length(words, start, end);
+                assertTrue("line too long", room >= 0 || end - start == 1);
+                total += LineBreaker.demerits(room, end - start - 1,
+                                              end == words.size());
+                start = end;
+            }
+            assertEquals("not all words placed", words.size(), start);
+            assertEquals("wrong total demerits", total, breaker.demerits(),
+                         1e-6 * total);
+            assertEquals("demerits not least", exhaustive(words, first,
+                                                          width),
+                         total, 1e-6 * total);
+        }
+    }
+
+    @Test
+    public void testLongParagraph() {
+        List<String> words = words(new Random(62), 100000);
+        LineBreaker breaker = new LineBreaker();
+        int lines = breaker.breakLines(words, 60, 72);
+        assertEquals(words.size(), breaker.end(lines - 1));
+    }
+
+    @Test
+    public void testOptimalLineAssembler() {
+        LineAssembler line =
+            new LineAssembler(new PagePrinter(new PrintWriter(
+                new StringWriter())));
+        line.setTextWidth(20);
+        line.setOptimalBreaking(true);
+        for (String word : "lazy a of brown a over and a to a jumps"
+                 .split(" ")) {
+            line.addText(word);
+        }
+        line.endParagraph();
+        assertEquals("Lines do not match",
+                     Arrays.asList("   lazy  a of  brown",
+                                   "a  over and  a to  a",
+                                   "jumps"),
+                     line.getterLines());
+    }
+
+    @Test
+    public void testOptimalLineAssemblerNofill() {
+        LineAssembler line =
+            new LineAssembler(new PagePrinter(new PrintWriter(
+                new StringWriter())));
+        line.setTextWidth(20);
+        line.setOptimalBreaking(true);
+        for (String word : "lazy a of brown a over and a to a jumps"
+                 .split(" ")) {
+            line.addText(word);
+        }
+        line.setFill(false);
+        line.addText("fox");
+        line.addText("dog");
+        line.endParagraph();
+        assertEquals("Lines do not match",
+                     Arrays.asList("   lazy  a of  brown",
+                                   "a  over and  a to  a",
+                                   "jumps fox dog"),
+                     line.getterLines());
+    }
+}
@@ -5,6 +5,7 @@ import java.io.FileReader;
 import java.io.Reader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Arrays;
 
 import static tex61.FormatException.reportError;
 import static tex61.FormatException.getTotalErrors;
@@ -16,9 +17,24 @@ public class Main {
 
     /** Format the file ARGS[0], producing output on the standard
      *  output if ARGS.length is 1, and otherwise on ARGS[1].  ARGS must
-     *  have length 1 or 2.  Print a usage message otherwise or if the
-     *  files are unreadable or unwritable, respectively. */
+     *  have length 1 or 2, after any of the options "--stream", which
+     *  prints each line as soon as it is formatted rather than printing
+     *  the whole document at the end, and "--parallel", which formats
+     *  paragraphs concurrently.  Print a usage message otherwise or if
+     *  the files are unreadable or unwritable, respectively. */
     public static void main(String[] args) throws IOException {
+        boolean streaming = false, parallel = false;
+        int options;
+        for (options = 0; options < args.length; options += 1) {
+            if (args[options].equals("--stream")) {
+                streaming = true;
+            } else if (args[options].equals("--parallel")) {
+                parallel = true;
+            } else {
+                break;
+            }
+        }
+        args = Arrays.copyOfRange(args, options, args.length);
         if (args.length == 0) {
             usage();
             return;
@@ -42,7 +58,7 @@ public class Main {
                 output = new PrintWriter(System.out);
             }
 
-            Controller cntrl = new Controller(output);
+            Controller cntrl = new Controller(output, streaming, parallel);
             InputParser src = new InputParser(input, cntrl);
             src.process();
             output.close();
@@ -58,9 +74,14 @@ public class Main {
     /** Print usage message. */
 
     private static void usage() {
-        System.out.printf("Usage: java format.Main INFILE [OUTFILE]%n"
+        System.out.printf("Usage: java format.Main [--stream] [--parallel] "
+                          + "INFILE [OUTFILE]%n"
                           + "   Format INFILE, sending output to OUTFILE "
-                          + "(default: standard output).%n");
+                          + "(default: standard output).%n"
+                          + "   With --stream, print each line as soon "
+                          + "as it is formatted.%n"
+                          + "   With --parallel, format paragraphs "
+                          + "concurrently.%n");
     }
 
 }
@@ -0,0 +1,121 @@
+package tex61;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/** Formats paragraphs concurrently.  The operations that would be
+ *  performed on a LineAssembler (adding words, changing parameters, and
+ *  ending paragraphs) are recorded in batches of whole paragraphs.  Each
+ *  batch is replayed on its own copy of the LineAssembler, made when the
+ *  batch starts, on a ForkJoinPool, and the lines formatted are sent in
+ *  order to that LineAssembler.  Between paragraphs, a LineAssembler
+ *  holds no words, and its state depends only on the parameters set so
+ *  far, so the lines are identical to those formatted by the
+ *  LineAssembler itself.
+ *  @author Charles Lee
+ */
+class ParallelFormatter {
+
+    /** Default least number of operations in a batch. */
+    static final int BATCH_SIZE = 1 << 12;
+
+    /** A formatter of the paragraphs of OUT that uses the common
+     *  ForkJoinPool and batches of at least BATCH_SIZE operations. */
+    ParallelFormatter(LineAssembler out) {
+        this(ForkJoinPool.commonPool(), out, BATCH_SIZE);
+    }
+
+    /** A formatter of the paragraphs of OUT that runs on POOL and uses
+     *  batches of at least BATCHSIZE operations.  OUT must be given the
+     *  same parameter settings as recorded, when they are recorded, and
+     *  no words. */
+    ParallelFormatter(ForkJoinPool pool, LineAssembler out, int batchSize) {
+        assert batchSize > 0;
+        _pool = pool;
+        _out = out;
+        _batchSize = batchSize;
+        _maxPending = 4 * pool.getParallelism();
+    }
+
+    /** Record OP, to be performed on the LineAssembler formatting the
+     *  current paragraph. */
+    void add(Consumer<LineAssembler> op) {
+        if (_ops.isEmpty()) {
+            _start = new LineAssembler(_out, new PageCollector(
+                new ArrayList<String>()), _paragraphs > 0);
+        }
+        _ops.add(op);
+    }
+
+    /** Record the end of the current paragraph, whose last operation has
+     *  been added, starting to format its batch if it is full. */
+    void endParagraph() {
+        _paragraphs += 1;
+        if (_ops.size() >= _batchSize) {
+            submit();
+        }
+    }
+
+    /** Send to my LineAssembler the lines of all batches started so
+     *  far. */
+    void flush() {
+        drain(0);
+    }
+
+    /** Format all operations recorded, and send their lines to my
+     *  LineAssembler. */
+    void finish() {
+        if (!_ops.isEmpty()) {
+            submit();
+        }
+        drain(0);
+    }
+
+    /** Start formatting the current batch, first sending the lines of
+     *  the oldest batches to my LineAssembler if too many are
+     *  pending. */
+    private void submit() {
+        LineAssembler assembler = _start;
+        List<Consumer<LineAssembler>> ops = _ops;
+        _ops = new ArrayList<>();
+        drain(_maxPending - 1);
+        _pending.add(_pool.submit(() -> {
+            for (Consumer<LineAssembler> op : ops) {
+                op.accept(assembler);
+            }
+            return assembler.getterLines();
+        }));
+    }
+
+    /** Wait for batches in order, sending their lines to my
+     *  LineAssembler, until no more than KEEP are pending. */
+    private void drain(int keep) {
+        while (_pending.size() > keep) {
+            for (String line : _pending.remove().join()) {
+                _out.addLine(line);
+            }
+        }
+    }
+
+    /** The pool on which batches are formatted. */
+    private final ForkJoinPool _pool;
+    /** Receives the lines formatted, and has the current parameters. */
+    private final LineAssembler _out;
+    /** Least number of operations in a batch. */
+    private final int _batchSize;
+    /** Most batches formatted at once. */
+    private final int _maxPending;
+    /** Operations of the current batch. */
+    private List<Consumer<LineAssembler>> _ops = new ArrayList<>();
+    /** Copy of _out, made when the current batch started. */
+    private LineAssembler _start;
+    /** Number of paragraphs ended. */
+    private int _paragraphs;
+    /** Batches being formatted, oldest first. */
+    private final ArrayDeque<ForkJoinTask<List<String>>> _pending =
+        new ArrayDeque<>();
+}
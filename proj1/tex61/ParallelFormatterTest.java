@@ -0,0 +1,80 @@
+package tex61;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of ParallelFormatters, comparing documents formatted in
+ *  parallel with the same documents formatted sequentially.
+ *  @author Charles Lee
+ */
+public class ParallelFormatterTest {
+
+    /** Commands placed at random in test documents. */
+    private static final String[] COMMANDS = {
+        "\\textwidth{%d}", "\\indent{%d}", "\\parindent{%d}",
+        "\\parskip{%d}", "\\endnote{Note %d.}", "\\linebreak{optimal}",
+        "\\linebreak{greedy}", "\\nofill ", "\\fill ",
+    };
+
+    /** Return a random document of PARAGRAPHS paragraphs, made with
+     *  RANDOM, in which commands appear both between and within
+     *  paragraphs. */
+    private String document(Random random, int paragraphs) {
+        StringBuilder doc = new StringBuilder();
+        for (int p = 0; p < paragraphs; p += 1) {
+            int words = 1 + random.nextInt(60);
+            for (int w = 0; w < words; w += 1) {
+                if (random.nextInt(20) == 0) {
+                    String command =
+                        COMMANDS[random.nextInt(COMMANDS.length)];
+                    doc.append(String.format(command, random.nextInt(5)
+                                             + (command.contains("width")
+                                                ? 30 : 0)));
+                }
+                for (int i = 1 + random.nextInt(9); i > 0; i -= 1) {
+                    doc.append((char) ('a' + random.nextInt(26)));
+                }
+                doc.append(random.nextInt(10) == 0 ? "\n" : " ");
+            }
+            doc.append("\n\n");
+        }
+        return doc.toString();
+    }
+
+    /** Return the result of formatting DOC, streaming iff STREAMING and
+     *  in parallel iff PARALLEL. */
+    private String format(String doc, boolean streaming, boolean parallel) {
+        StringWriter output = new StringWriter();
+        Controller cont =
+            new Controller(new PrintWriter(output), streaming, parallel);
+        new InputParser(doc, cont).process();
+        return output.toString();
+    }
+
+    @Test
+    public void testShortDocuments() {
+        Random random = new Random(61);
+        for (int k = 0; k < 50; k += 1) {
+            String doc = document(random, 1 + random.nextInt(5));
+            assertEquals("wrong output for \"" + doc + "\"",
+                         format(doc, false, false), format(doc, false, true));
+        }
+    }
+
+    @Test
+    public void testLongDocuments() {
+        Random random = new Random(62);
+        for (int k = 0; k < 4; k += 1) {
+            String doc = document(random, 500);
+            String expected = format(doc, false, false);
+            assertEquals("wrong buffered output", expected,
+                         format(doc, false, true));
+            assertEquals("wrong streamed output", expected,
+                         format(doc, true, true));
+        }
+    }
+}
@@ -12,5 +12,8 @@ public class UnitTest {
         textui.runClasses(tex61.PageAssemblerTest.class);
         textui.runClasses(tex61.ControllerTest.class);
         textui.runClasses(tex61.LineAssemblerTest.class);
+        textui.runClasses(tex61.LexerTest.class);
+        textui.runClasses(tex61.ParallelFormatterTest.class);
+        textui.runClasses(tex61.LineBreakerTest.class);
     }
 }